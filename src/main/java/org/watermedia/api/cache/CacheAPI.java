@@ -1,21 +1,42 @@
 package org.watermedia.api.cache;
 
 import org.watermedia.api.WaterInternalAPI;
+import org.watermedia.core.tools.ArgTool;
 import org.watermedia.core.tools.DataTool;
+import org.watermedia.core.tools.IOTool;
+import org.watermedia.core.tools.ThreadTool;
 import org.watermedia.loaders.ILoader;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -29,31 +50,492 @@ public class CacheAPI extends WaterInternalAPI {
      * Thread-safe cache using ConcurrentHashMap for better concurrent access.
      */
     private static final Map<URI, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    /**
+     * Eviction order, first element is the next one to be evicted.
+     * Rank is the last access time plus a bonus for each hit (capped), so pictures used often survive
+     * a burst of one-time pictures but still age out when nobody uses them anymore.
+     * Guarded by itself, also guards {@link #usedBytes} and every put/remove on {@link #ENTRIES}
+     */
+    private static final TreeSet<Entry> EVICTION_ORDER = new TreeSet<>((a, b) -> {
+        int c = Long.compare(a.rank, b.rank);
+        return c != 0 ? c : a.uri.compareTo(b.uri);
+    });
+    private static final long HIT_BONUS_MS = 10 * 60 * 1000; // 10 MINUTES PER HIT
+    private static final int MAX_HITS_BONUS = 16;
+    private static final float EVICTION_TARGET = 0.9f; // EVICT UNTIL 90% OF THE BUDGET
+
+    // DISK BUDGET
+    public static final ArgTool MAX_BYTES = new ArgTool("watermedia.cache.maxBytes");
+    public static final ArgTool MAX_ENTRIES = new ArgTool("watermedia.cache.maxEntries");
+    private static volatile long maxBytes = DataTool.parseLongOr(MAX_BYTES.value(), 1024L * 1024 * 1024); // 1 GiB
+    private static volatile long maxEntries = DataTool.parseLongOr(MAX_ENTRIES.value(), 8192);
+    private static volatile long usedBytes = 0;
+    private static volatile boolean evicting = false;
+
+    /**
+     * Files that could not be deleted yet (mapped files on Windows) and their size, retried on each sweep.
+     * Their bytes stay in {@link #usedBytes} until they are gone. Guarded by {@link #EVICTION_ORDER}
+     */
+    private static final Map<File, Long> PENDING_DELETES = new HashMap<>();
+
+    // EXPIRATION
+    public static final ArgTool STALE_WINDOW = new ArgTool("watermedia.cache.staleWindow");
+    private static volatile long staleWindow = DataTool.parseLongOr(STALE_WINDOW.value(), 24 * 60 * 60 * 1000); // 1 DAY
+    private static final long SWEEP_INTERVAL_MS = 5 * 60 * 1000; // 5 MINUTES
+    private static final int SWEEP_BATCH = 64;
+
+    // DECODED PIXELS TIER
+    public static final ArgTool DECODED_TIER = new ArgTool("watermedia.cache.decodedTier");
+    private static volatile boolean decodedTier = !"false".equalsIgnoreCase(DECODED_TIER.value());
+    private static final int PIXELS_MAGIC = 0x574D5058; // WMPX
+    private static final int PIXELS_VERSION = 1;
+    private static final int PIXELS_ALIGNMENT = 64;
+    private static final String PIXELS_EXTENSION = ".px";
+    private static final String TMP_EXTENSION = ".tmp";
     
     /**
-     * StampedLock for index file operations - allows optimistic reads.
+     * Guards the journal stream, appends are one record long so the lock is held for a constant time.
+     * Compaction only holds it while swapping the journal file
      */
     private static final StampedLock INDEX_LOCK = new StampedLock();
 
+    /**
+     * Only one compaction (background or on release) can write the snapshot at a time
+     */
+    private static final Object COMPACT_LOCK = new Object();
+    private static volatile ScheduledExecutorService worker = worker$create(); // REPLACED WHEN STARTED AGAIN AFTER A RELEASE
+
+    // INDEX FORMAT
+    private static final int INDEX_MAGIC = 0x574D4349; // WMCI
+    private static final int INDEX_VERSION = 1;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final int INDEX_HEADER = 8; // MAGIC AND VERSION
+    private static final long JOURNAL_COMPACT_THRESHOLD = 512 * 1024; // 512 KiB
+
     private static File dir;
-    private static File index;
+    private static File index; // LEGACY, FULL REWRITE INDEX (2.1.36 AND BEFORE)
+    private static File snapshot;
+    private static File journal;
+    private static File journalOld;
+    private static DataOutputStream journalOut;
+    private static volatile boolean compacting = false;
     private static boolean init = false;
 
-    private static boolean refreshAll() {
-        try(DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(index.toPath())))) {
-            out.writeInt(ENTRIES.size());
+    private static ScheduledExecutorService worker$create() {
+        return Executors.newSingleThreadScheduledExecutor(ThreadTool.factory("CacheAPI-Worker", Thread.MIN_PRIORITY));
+    }
+
+    private static void journal$append(byte op, Entry entry) {
+        long stamp = INDEX_LOCK.writeLock();
+        try {
+            if (journalOut == null) return; // NOT STARTED OR ALREADY RELEASED
+            journalOut.writeByte(op);
+            if (op == OP_PUT) {
+                entry$write(journalOut, entry);
+            } else {
+                journalOut.writeUTF(entry.getUri().toString());
+            }
+            journalOut.flush();
+
+            if (journalOut.size() > JOURNAL_COMPACT_THRESHOLD && !compacting) {
+                compacting = true;
+                worker.execute(CacheAPI::compact);
+            }
+        } catch (IOException e) {
+            LOGGER.error(IT, "Failed to append '{}' into the cache journal", entry.getUri(), e);
+        } finally {
+            INDEX_LOCK.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Moves the current journal aside (into {@link #journalOld}), must be called holding {@link #INDEX_LOCK}
+     */
+    private static void journal$rotate() throws IOException {
+        if (journalOut != null) {
+            journalOut.close();
+            journalOut = null;
+        }
+
+        if (!journal.exists()) return;
+        if (journalOld.exists()) { // PREVIOUS COMPACTION FAILED, KEEP ALL RECORDS
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal.toPath())));
+                 OutputStream out = Files.newOutputStream(journalOld.toPath(), StandardOpenOption.APPEND)) {
+                in.readLong(); // SKIP HEADER
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+            } catch (EOFException ignored) {
+                // EMPTY JOURNAL, NOTHING TO KEEP
+            }
+            Files.delete(journal.toPath());
+        } else {
+            Files.move(journal.toPath(), journalOld.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static DataOutputStream journal$open() throws IOException {
+        boolean fresh = !journal.exists() || journal.length() == 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        if (fresh) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.flush();
+        }
+        return out;
+    }
+
+    /**
+     * Replays all records of a journal file over {@link #ENTRIES}, a torn tail (crash in the middle of an append)
+     * just ends the replay and is cut from the file, so new records are never appended after it
+     * @return amount of records replayed
+     */
+    private static int journal$replay(File file) {
+        if (!file.exists()) return 0;
+        int records = 0;
+        long valid = 0; // END OF THE LAST COMPLETE RECORD
+        boolean torn = true;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != INDEX_MAGIC) throw new IOException("Invalid journal header");
+            int version = in.readInt();
+            if (version > INDEX_VERSION) throw new IOException("Unsupported journal version " + version);
+            valid = counter.count;
+
+            while (true) {
+                int op = in.read();
+                if (op == -1) break;
 
-            for (Map.Entry<URI, Entry> mapEntry : ENTRIES.entrySet()) {
-                Entry entry = mapEntry.getValue();
-                out.writeUTF(entry.getUri().toString());
-                out.writeUTF(entry.getTag() == null ? "" : entry.getTag());
-                out.writeLong(entry.getTime());
-                out.writeLong(entry.getExpireTime());
+                if (op == OP_PUT) {
+                    Entry entry = entry$read(in);
+                    ENTRIES.put(entry.getUri(), entry);
+                } else if (op == OP_DELETE) {
+                    ENTRIES.remove(new URI(in.readUTF()));
+                } else {
+                    throw new IOException("Unknown journal operation " + op);
+                }
+                records++;
+                valid = counter.count;
             }
+            torn = false;
+        } catch (EOFException e) {
+            LOGGER.warn(IT, "Journal '{}' ends with an incomplete record, ignoring it", file.getName());
+        } catch (Exception e) {
+            LOGGER.error(IT, "Failed to replay journal '{}'", file.getName(), e);
+        }
+        if (torn) journal$truncate(file, valid);
+        return records;
+    }
+
+    /**
+     * Cuts the journal after its last complete record, journals without a complete header are deleted
+     */
+    private static void journal$truncate(File file, long length) {
+        try {
+            if (length < INDEX_HEADER) {
+                Files.delete(file.toPath());
+            } else {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(length);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error(IT, "Failed to cut the broken tail of journal '{}'", file.getName(), e);
+        }
+    }
+
+    private static boolean snapshot$write(List<Entry> entries) {
+        File tmp = new File(dir, snapshot.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp.toPath()))))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(entries.size());
+
+            for (Entry entry: entries) {
+                entry$write(out, entry);
+            }
+        } catch (IOException e) {
+            LOGGER.error(IT, "Failed to write cache snapshot", e);
+            return false;
+        }
 
+        try {
+            Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             return true;
-        } catch (IOException e) { LOGGER.error(IT, "Failed to refresh cache index", e); }
-        return false;
+        } catch (IOException e) {
+            LOGGER.error(IT, "Failed to move cache snapshot into place", e);
+            return false;
+        }
+    }
+
+    private static void snapshot$read() throws Exception {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshot.toPath()))))) {
+            if (in.readInt() != INDEX_MAGIC) throw new IOException("Invalid snapshot header");
+            int version = in.readInt();
+            if (version > INDEX_VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+            int length = in.readInt();
+            for (int i = 0; i < length; i++) {
+                Entry entry = entry$read(in);
+                ENTRIES.put(entry.getUri(), entry);
+            }
+        }
+    }
+
+    private static void legacy$read() throws Exception {
+        try (DataInputStream stream = new DataInputStream(new GZIPInputStream(Files.newInputStream(index.toPath())))) {
+            int length = stream.readInt();
+
+            for (int i = 0; i < length; i++) {
+                String uri = stream.readUTF();
+                String tag = stream.readUTF();
+                long time = stream.readLong();
+                long expireTime = stream.readLong();
+                Entry entry = new Entry(new URI(uri), !tag.isEmpty() ? tag : null, time, expireTime);
+                ENTRIES.put(entry.getUri(), entry);
+            }
+        }
+    }
+
+    /**
+     * Folds the journal into a new snapshot.
+     * The journal is rotated under {@link #INDEX_LOCK} so appends keep flowing into a fresh journal
+     * while the snapshot is written. The rotated journal is only deleted once the snapshot is in place,
+     * startup replays it otherwise (records are idempotent)
+     */
+    private static void compact() {
+        synchronized (COMPACT_LOCK) {
+            try {
+                List<Entry> entries;
+                long stamp = INDEX_LOCK.writeLock();
+                try {
+                    entries = new ArrayList<>(ENTRIES.values());
+                    journal$rotate();
+                } finally {
+                    try {
+                        journalOut = journal$open();
+                    } finally {
+                        INDEX_LOCK.unlockWrite(stamp);
+                    }
+                }
+
+                if (snapshot$write(entries)) {
+                    Files.deleteIfExists(journalOld.toPath());
+                    LOGGER.debug(IT, "Compacted cache index with {} entries", entries.size());
+                }
+            } catch (IOException e) {
+                LOGGER.error(IT, "Failed to compact cache index", e);
+            } finally {
+                compacting = false;
+            }
+        }
+    }
+
+    private static void entry$write(DataOutputStream out, Entry entry) throws IOException {
+        out.writeUTF(entry.getUri().toString());
+        out.writeUTF(entry.getTag() == null ? "" : entry.getTag());
+        out.writeLong(entry.getTime());
+        out.writeLong(entry.getExpireTime());
+        out.writeLong(entry.getSize());
+        out.writeLong(entry.getLastAccess());
+        out.writeInt(entry.getHits());
+    }
+
+    private static Entry entry$read(DataInputStream in) throws Exception {
+        URI uri = new URI(in.readUTF());
+        String tag = in.readUTF();
+        Entry entry = new Entry(uri, !tag.isEmpty() ? tag : null, in.readLong(), in.readLong());
+        entry.size = in.readLong();
+        entry.lastAccess = in.readLong();
+        entry.hits = in.readInt();
+        entry.rank();
+        return entry;
+    }
+
+    /**
+     * Stores the entry and updates the disk usage, the entry inherits the usage stats of the replaced one
+     * @return true if the budget was exceeded
+     */
+    private static boolean entry$put(Entry entry) {
+        synchronized (EVICTION_ORDER) {
+            Entry old = ENTRIES.put(entry.uri, entry);
+            if (old != null && old != entry) {
+                EVICTION_ORDER.remove(old);
+                usedBytes -= old.size;
+                if (entry.size < 0) entry.size = old.size;
+                entry.hits = Math.max(entry.hits, old.hits);
+                entry.lastAccess = Math.max(entry.lastAccess, old.lastAccess);
+            } else if (old == entry && EVICTION_ORDER.remove(old)) {
+                usedBytes -= old.size;
+            }
+            if (entry.size < 0) entry.size = entry.getFile().length();
+            entry.rank();
+            EVICTION_ORDER.add(entry);
+            usedBytes += entry.size;
+            return usedBytes > maxBytes || ENTRIES.size() > maxEntries;
+        }
+    }
+
+    private static boolean entry$remove(URI url, Entry expected) {
+        synchronized (EVICTION_ORDER) {
+            Entry entry = ENTRIES.get(url);
+            if (entry == null || (expected != null && entry != expected)) return false;
+            ENTRIES.remove(url);
+            EVICTION_ORDER.remove(entry);
+            usedBytes -= entry.size;
+            return true;
+        }
+    }
+
+    private static void entry$touch(Entry entry) {
+        synchronized (EVICTION_ORDER) {
+            boolean tracked = EVICTION_ORDER.remove(entry);
+            entry.lastAccess = System.currentTimeMillis();
+            entry.hits++;
+            entry.rank();
+            if (tracked) EVICTION_ORDER.add(entry);
+        }
+    }
+
+    private static void evict$schedule() {
+        if (evicting) return;
+        evicting = true;
+        worker.execute(CacheAPI::evict);
+    }
+
+    /**
+     * Drops the lowest ranked entries until usage goes under {@link #EVICTION_TARGET} of the budget.
+     * Runs on the cache worker, each decision is a {@link TreeSet#first()} plus a removal
+     */
+    private static void evict() {
+        try {
+            int evicted = 0;
+            long freed = 0;
+            while (true) {
+                Entry entry;
+                synchronized (EVICTION_ORDER) {
+                    if (usedBytes <= maxBytes * EVICTION_TARGET && ENTRIES.size() <= maxEntries * EVICTION_TARGET) break;
+                    if (EVICTION_ORDER.isEmpty()) break;
+                    entry = EVICTION_ORDER.first();
+                    if (!entry$remove(entry.uri, entry)) {
+                        EVICTION_ORDER.remove(entry); // STALE
+                        continue;
+                    }
+                }
+
+                journal$append(OP_DELETE, entry);
+                entry$deleteFiles(entry.uri, "evicted");
+                freed += entry.size;
+                evicted++;
+            }
+            if (evicted > 0) LOGGER.debug(IT, "Evicted {} entries ({} bytes) from the disk cache", evicted, freed);
+        } finally {
+            evicting = false;
+        }
+    }
+
+    /**
+     * Drops entries expired beyond the stale window, at most {@link #SWEEP_BATCH} per run.
+     * When a batch is full the next one is queued right away, so the worker is never blocked for long
+     */
+    private static void sweep() {
+        pending$retry();
+        long now = System.currentTimeMillis();
+        List<Entry> expired = new ArrayList<>(SWEEP_BATCH);
+        for (Entry entry: ENTRIES.values()) {
+            if (!entry.isSweepable(now)) continue;
+            expired.add(entry);
+            if (expired.size() == SWEEP_BATCH) break;
+        }
+
+        for (Entry entry: expired) {
+            if (!entry$remove(entry.uri, entry)) continue;
+            journal$append(OP_DELETE, entry);
+            entry$deleteFiles(entry.uri, "expired");
+        }
+
+        if (!expired.isEmpty()) LOGGER.debug(IT, "Swept {} expired entries", expired.size());
+        if (expired.size() == SWEEP_BATCH && !worker.isShutdown()) worker.execute(CacheAPI::sweep);
+    }
+
+    private static void entry$deleteFiles(URI url, String reason) {
+        file$delete(entry$getFile(url), url, reason + " entry");
+        file$delete(entry$getPixelsFile(url), url, reason + " pixels");
+    }
+
+    /**
+     * Deletes the file, when it can't be deleted right now it is queued and its bytes are accounted
+     * until a later sweep deletes it
+     */
+    private static void file$delete(File file, URI url, String kind) {
+        if (!file.exists()) return;
+        long size = file.length();
+        if (file.delete()) return;
+
+        synchronized (EVICTION_ORDER) {
+            Long old = PENDING_DELETES.put(file, size);
+            usedBytes += size - (old != null ? old : 0);
+        }
+        LOGGER.warn(IT, "Cannot delete {} file of '{}' located in '{}', retrying later", kind, url, file.toString());
+    }
+
+    /**
+     * The queued file was replaced by new data, the old one is already gone
+     */
+    private static void pending$forget(File file) {
+        synchronized (EVICTION_ORDER) {
+            Long size = PENDING_DELETES.remove(file);
+            if (size != null) usedBytes -= size;
+        }
+    }
+
+    private static void pending$retry() {
+        synchronized (EVICTION_ORDER) {
+            if (PENDING_DELETES.isEmpty()) return;
+            int deleted = 0;
+            Iterator<Map.Entry<File, Long>> it = PENDING_DELETES.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<File, Long> pending = it.next();
+                if (pending.getKey().exists() && !pending.getKey().delete()) continue;
+                usedBytes -= pending.getValue();
+                it.remove();
+                deleted++;
+            }
+            if (deleted > 0) LOGGER.debug(IT, "Deleted {} files queued for deletion, {} still pending", deleted, PENDING_DELETES.size());
+        }
+    }
+
+    /**
+     * Deletes files left by entries dropped from the index while their files could not be deleted.
+     * Files modified after the start are skipped, they may belong to downloads committing right now
+     */
+    private static void orphans$delete(long started) {
+        Set<String> known = new HashSet<>();
+        for (URI url: ENTRIES.keySet()) {
+            String name = entry$getFile(url).getName();
+            known.add(name);
+            known.add(name + PIXELS_EXTENSION);
+        }
+        known.add(index.getName());
+        known.add(snapshot.getName());
+        known.add(journal.getName());
+        known.add(journalOld.getName());
+
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null) return;
+        int deleted = 0;
+        for (File file: files) {
+            if (known.contains(file.getName()) || file.getName().endsWith(TMP_EXTENSION) || file.lastModified() >= started) continue;
+            if (file.delete()) deleted++;
+        }
+        if (deleted > 0) LOGGER.info(IT, "Deleted {} orphan files from the cache", deleted);
+    }
+
+    private static File entry$getPixelsFile(URI url) {
+        File file = entry$getFile(url);
+        return new File(file.getParentFile(), file.getName() + PIXELS_EXTENSION);
     }
 
     private static File entry$getFile(URI url) {
@@ -68,6 +550,8 @@ public class CacheAPI extends WaterInternalAPI {
 
     public static void saveFile(URI url, String tag, long time, long expireTime, byte[] data) {
         Entry entry = new Entry(url, tag, time, expireTime);
+        entry.size = data.length;
+        entry.lastAccess = System.currentTimeMillis();
         boolean saved = false;
         File file = entry$getFile(entry.uri);
 
@@ -77,35 +561,245 @@ public class CacheAPI extends WaterInternalAPI {
         } catch (Exception e) { LOGGER.error(IT, "Failed to save cache file {}", url, e); }
 
         if (saved) {
-            ENTRIES.put(url, entry);
-            // Use write lock only for index refresh
-            long stamp = INDEX_LOCK.writeLock();
-            try {
-                refreshAll();
-            } finally {
-                INDEX_LOCK.unlockWrite(stamp);
-            }
-        } else if (file.exists()) {
-            if (!file.delete()) LOGGER.warn(IT, "Cannot delete unsaved entry file of '{}' located in '{}'", url, file.toString());
+            entry$saved(entry);
+        } else {
+            entry$deletePixels(url);
+            file$delete(file, url, "unsaved entry");
         }
     }
 
+    /**
+     * Streams a new file for the entry, data is written into a temporal file in the cache dir and moved into place
+     * by {@link Download#commit(String, long, long)}, so a cut or refused download never replaces the saved file.
+     * Closing it without a commit discards the data
+     * @param url entry url
+     * @return stream of the new file
+     */
+    public static Download download(URI url) throws IOException {
+        return new Download(url);
+    }
+
+    private static void entry$saved(Entry entry) {
+        entry$deletePixels(entry.uri);
+        boolean exceeded = entry$put(entry);
+        journal$append(OP_PUT, entry);
+        if (exceeded) evict$schedule();
+    }
+
+    // DECODED PIXELS BELONGS TO THE OLD DATA
+    private static void entry$deletePixels(URI url) {
+        file$delete(entry$getPixelsFile(url), url, "outdated pixels");
+    }
+
+    /**
+     * Gets the entry of the url, counts as an access for the eviction order
+     * @param url entry url
+     * @return the entry or null if there is nothing cached
+     */
     public static Entry getEntry(URI url) {
-        return ENTRIES.get(url);
+        Entry entry = ENTRIES.get(url);
+        if (entry != null) entry$touch(entry);
+        return entry;
     }
 
     public static void updateEntry(Entry fresh) {
-        ENTRIES.put(fresh.uri, fresh);
+        boolean exceeded = entry$put(fresh);
+        journal$append(OP_PUT, fresh);
+        if (exceeded) evict$schedule();
     }
 
     public static void deleteEntry(URI url) {
-        ENTRIES.remove(url);
-        File file = entry$getFile(url);
-        if (file.exists()) {
-            if (!file.delete()) LOGGER.warn(IT, "Cannot delete entry file of '{}' located in '{}'", url, file.toString());
+        Entry entry = ENTRIES.get(url);
+        if (entry != null && entry$remove(url, entry)) journal$append(OP_DELETE, entry);
+        entry$deleteFiles(url, "deleted");
+    }
+
+    /**
+     * Stores the final BGRA frames of a cached entry, next loads can map them instead of decoding the picture again.
+     * Pixels are bound to the entry tag, if the tag changes they are discarded
+     * @param url entry url, must be already saved
+     * @param width frames width
+     * @param height frames height
+     * @param delay delay of each frame
+     * @param frames BGRA buffers of each frame, each one with width * height * 4 bytes remaining
+     * @return true if pixels were stored
+     */
+    public static boolean savePixels(URI url, int width, int height, long[] delay, ByteBuffer[] frames) {
+        if (!decodedTier || !init) return false;
+        Entry entry = ENTRIES.get(url);
+        if (entry == null) return false;
+
+        long frameSize = (long) width * height * 4;
+        long dataSize = frameSize * frames.length;
+        if (dataSize > maxBytes / 8) return false; // NOT WORTH TO TRASH THE BUDGET
+
+        File file = entry$getPixelsFile(url);
+        File tmp = new File(file.getParentFile(), file.getName() + TMP_EXTENSION);
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] tag = (entry.getTag() == null ? "" : entry.getTag()).getBytes(StandardCharsets.UTF_8);
+            int headerSize = 4 + 4 + 4 + tag.length + 4 + 4 + 4 + delay.length * 8;
+            headerSize += (PIXELS_ALIGNMENT - headerSize % PIXELS_ALIGNMENT) % PIXELS_ALIGNMENT;
+
+            ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.BIG_ENDIAN);
+            header.putInt(PIXELS_MAGIC).putInt(PIXELS_VERSION);
+            header.putInt(tag.length).put(tag);
+            header.putInt(width).putInt(height).putInt(frames.length);
+            for (long d: delay) header.putLong(d);
+            header.position(0);
+            while (header.hasRemaining()) channel.write(header);
+
+            for (ByteBuffer frame: frames) {
+                if (frame.remaining() != frameSize) throw new IOException("Frame size mismatch, expected " + frameSize + " got " + frame.remaining());
+                ByteBuffer view = frame.duplicate();
+                while (view.hasRemaining()) channel.write(view);
+            }
+        } catch (Exception e) {
+            LOGGER.error(IT, "Failed to save decoded pixels of '{}'", url, e);
+            if (tmp.exists() && !tmp.delete()) LOGGER.warn(IT, "Cannot delete unsaved pixels file of '{}' located in '{}'", url, tmp.toString());
+            return false;
+        }
+
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            pending$forget(file);
+        } catch (IOException e) {
+            LOGGER.error(IT, "Failed to move decoded pixels of '{}' into place", url, e);
+            if (tmp.exists() && !tmp.delete()) LOGGER.warn(IT, "Cannot delete unsaved pixels file of '{}' located in '{}'", url, tmp.toString());
+            return false;
+        }
+
+        // ACCOUNT PIXELS INTO THE ENTRY SIZE
+        boolean exceeded;
+        synchronized (EVICTION_ORDER) {
+            if (ENTRIES.get(url) != entry) return true; // REPLACED OR EVICTED MEANWHILE, NEXT LOAD DISCARDS IT
+            EVICTION_ORDER.remove(entry);
+            usedBytes -= entry.size;
+            entry.size = entry.getFile().length() + file.length();
+            EVICTION_ORDER.add(entry);
+            usedBytes += entry.size;
+            exceeded = usedBytes > maxBytes;
         }
+        journal$append(OP_PUT, entry);
+        if (exceeded) evict$schedule();
+        return true;
     }
 
+    /**
+     * Maps the decoded pixels of the entry, the returned buffers are read-only views of the file
+     * and must not be freed, release the whole mapping with {@link IOTool#unmap(ByteBuffer)} on {@link Pixels#mapping}
+     * once the frames are not used anymore
+     * @param entry cached entry
+     * @return pixels or null if there is no pixels stored, or they belong to another tag
+     */
+    public static Pixels loadPixels(Entry entry) {
+        if (!decodedTier || entry == null) return null;
+        File file = entry$getPixelsFile(entry.uri);
+        if (!file.exists()) return null;
+
+        MappedByteBuffer mapped = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt() != PIXELS_MAGIC || mapped.getInt() != PIXELS_VERSION) throw new IOException("Invalid pixels header");
+
+            byte[] tag = new byte[mapped.getInt()];
+            mapped.get(tag);
+            String expected = entry.getTag() == null ? "" : entry.getTag();
+            if (!expected.equals(new String(tag, StandardCharsets.UTF_8))) {
+                LOGGER.debug(IT, "Decoded pixels of '{}' belongs to an old tag, discarding", entry.uri);
+                channel.close();
+                IOTool.unmap(mapped);
+                file$delete(file, entry.uri, "outdated pixels");
+                return null;
+            }
+
+            int width = mapped.getInt();
+            int height = mapped.getInt();
+            long[] delay = new long[mapped.getInt()];
+            for (int i = 0; i < delay.length; i++) delay[i] = mapped.getLong();
+
+            int offset = mapped.position();
+            offset += (PIXELS_ALIGNMENT - offset % PIXELS_ALIGNMENT) % PIXELS_ALIGNMENT;
+            int frameSize = width * height * 4;
+            if (delay.length == 0 || offset + (long) frameSize * delay.length != channel.size()) throw new IOException("Truncated pixels file");
+
+            ByteBuffer[] frames = new ByteBuffer[delay.length];
+            for (int i = 0; i < frames.length; i++) {
+                mapped.limit(offset + frameSize).position(offset);
+                frames[i] = mapped.slice();
+                mapped.limit(mapped.capacity());
+                offset += frameSize;
+            }
+            return new Pixels(width, height, delay, frames, mapped);
+        } catch (Exception e) {
+            LOGGER.error(IT, "Failed to load decoded pixels of '{}', discarding", entry.uri, e);
+            if (mapped != null) IOTool.unmap(mapped);
+            file$delete(file, entry.uri, "broken pixels");
+            return null;
+        }
+    }
+
+    /**
+     * Maps the decoded pixels of the url on the cache worker, keeps the file open and map out of the render thread.
+     * See {@link #loadPixels(Entry)}
+     * @param url entry url
+     * @param consumer receives the pixels or null, on the cache worker
+     */
+    public static void loadPixels(URI url, Consumer<Pixels> consumer) {
+        try {
+            worker.execute(() -> consumer.accept(loadPixels(getEntry(url))));
+        } catch (RejectedExecutionException e) {
+            consumer.accept(null); // RELEASED
+        }
+    }
+
+    /**
+     * Checks the decoded pixels of the url are on disk, without mapping them nor counting an access.
+     * They can still be evicted right after, callers must handle a failed {@link #loadPixels(Entry)}
+     * @param url entry url
+     * @return true if there is a pixels file for the entry
+     */
+    public static boolean hasPixels(URI url) {
+        return decodedTier && ENTRIES.containsKey(url) && entry$getPixelsFile(url).exists();
+    }
+
+    /**
+     * Changes the disk budget of the picture cache, eviction starts right away when the new budget is exceeded.
+     * Defaults can be changed with <code>-Dwatermedia.cache.maxBytes</code> and <code>-Dwatermedia.cache.maxEntries</code>
+     * @param bytes max amount of bytes stored on disk
+     * @param entries max amount of cached pictures
+     */
+    public static void setDiskBudget(long bytes, long entries) {
+        maxBytes = bytes;
+        maxEntries = entries;
+        if (init && (usedBytes > maxBytes || ENTRIES.size() > maxEntries)) evict$schedule();
+    }
+
+    /**
+     * Changes how long an expired entry can still be served while it gets revalidated in background.
+     * Entries expired beyond this window are swept from disk.
+     * Default can be changed with <code>-Dwatermedia.cache.staleWindow</code>
+     * @param millis stale window in milliseconds
+     */
+    public static void setStaleWindow(long millis) {
+        staleWindow = millis;
+    }
+
+    public static long getStaleWindow() { return staleWindow; }
+
+    /**
+     * Enables or disables the decoded pixels tier, it can be also disabled with <code>-Dwatermedia.cache.decodedTier=false</code>
+     * @param enabled true to store and use decoded pixels
+     */
+    public static void setDecodedTier(boolean enabled) {
+        decodedTier = enabled;
+    }
+
+    public static boolean isDecodedTier() { return decodedTier; }
+    public static long getMaxBytes() { return maxBytes; }
+    public static long getMaxEntries() { return maxEntries; }
+    public static long getUsedBytes() { return usedBytes; }
+    public static int getEntryCount() { return ENTRIES.size(); }
+
     @Override
     public Priority priority() {
         return Priority.HIGHEST;
@@ -116,6 +810,9 @@ public class CacheAPI extends WaterInternalAPI {
         // SETUP
         dir = bootCore.tempDir().toAbsolutePath().resolve("cache/pictures").toFile();
         index = new File(dir, "index");
+        snapshot = new File(dir, "index.dat");
+        journal = new File(dir, "index.log");
+        journalOld = new File(dir, "index.log.old");
         LOGGER.info(IT, "Mounted on path '{}'", dir);
 
         return !init;
@@ -124,28 +821,75 @@ public class CacheAPI extends WaterInternalAPI {
     @Override
     public void start(ILoader bootCore) throws Exception {
         if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot make necessary dirs for proper storing");
-        if (index.exists()) {
-            try (DataInputStream stream = new DataInputStream(new GZIPInputStream(Files.newInputStream(index.toPath())))) {
-                int length = stream.readInt();
-
-                for (int i = 0; i < length; i++) {
-                    String uri = stream.readUTF();
-                    String tag = stream.readUTF();
-                    long time = stream.readLong();
-                    long expireTime = stream.readLong();
-                    Entry entry = new Entry(new URI(uri), !tag.isEmpty() ? tag : null, time, expireTime);
-                    ENTRIES.put(entry.getUri(), entry);
-                }
-            } catch (Exception e) {
-                LOGGER.error(IT, "Failed to load indexes", e);
+        if (worker.isShutdown()) worker = worker$create();
+
+        // LEFTOVERS OF WRITES CUT BY A CRASH
+        File[] leftovers = dir.listFiles((d, name) -> name.endsWith(TMP_EXTENSION));
+        if (leftovers != null) {
+            for (File leftover: leftovers) {
+                if (!leftover.delete()) LOGGER.warn(IT, "Cannot delete leftover file '{}'", leftover.toString());
             }
         }
+
+        boolean dirty = false;
+        try {
+            if (snapshot.exists()) {
+                snapshot$read();
+            } else if (index.exists()) {
+                LOGGER.info(IT, "Migrating legacy cache index");
+                legacy$read();
+                dirty = true;
+            }
+        } catch (Exception e) {
+            LOGGER.error(IT, "Failed to load indexes", e);
+        }
+
+        long started = System.currentTimeMillis();
+        int replayed = journal$replay(journalOld) + journal$replay(journal);
+        for (Entry entry: ENTRIES.values()) {
+            entry$put(entry);
+        }
+        LOGGER.info(IT, "Loaded {} cache entries ({} journal records replayed), using {} of {} bytes", ENTRIES.size(), replayed, usedBytes, maxBytes);
+
+        // START WITH A CLEAN JOURNAL
+        if (dirty || replayed > 0 || !snapshot.exists()) {
+            if (snapshot$write(new ArrayList<>(ENTRIES.values()))) {
+                Files.deleteIfExists(journalOld.toPath());
+                Files.deleteIfExists(journal.toPath());
+                Files.deleteIfExists(index.toPath());
+            }
+        }
+        journalOut = journal$open();
         init = true;
+        if (usedBytes > maxBytes || ENTRIES.size() > maxEntries) evict$schedule();
+        worker.execute(() -> orphans$delete(started));
+        worker.scheduleWithFixedDelay(CacheAPI::sweep, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void release() {
-        refreshAll();
+        if (!init) return;
+        compact();
+
+        long stamp = INDEX_LOCK.writeLock();
+        try {
+            if (journalOut != null) journalOut.close();
+        } catch (IOException e) {
+            LOGGER.error(IT, "Failed to close cache journal", e);
+        } finally {
+            journalOut = null;
+            INDEX_LOCK.unlockWrite(stamp);
+        }
+        worker.shutdown();
+
+        // EVERYTHING IS ON DISK, START LOADS IT AGAIN
+        init = false;
+        synchronized (EVICTION_ORDER) {
+            ENTRIES.clear();
+            EVICTION_ORDER.clear();
+            PENDING_DELETES.clear();
+            usedBytes = 0;
+        }
     }
 
     public static final class Entry {
@@ -153,12 +897,22 @@ public class CacheAPI extends WaterInternalAPI {
         private String tag;
         private long time;
         private long expireTime;
+        // USAGE, TRACKED BY CACHEAPI
+        private long size = -1;
+        private long lastAccess;
+        private int hits;
+        private long rank;
 
         public Entry(URI uri, String tag, long time, long expireTime) {
             this.uri = uri;
             this.tag = tag;
             this.time = time;
             this.expireTime = expireTime;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        private void rank() {
+            this.rank = lastAccess + Math.min(hits, MAX_HITS_BONUS) * HIT_BONUS_MS;
         }
 
         public void setTag(String tag) { this.tag = tag; }
@@ -168,9 +922,165 @@ public class CacheAPI extends WaterInternalAPI {
         public String getTag() { return tag; }
         public long getTime() { return time; }
         public long getExpireTime() { return expireTime; }
+        public long getSize() { return size; }
+        public long getLastAccess() { return lastAccess; }
+        public int getHits() { return hits; }
         public boolean isExpired() {
             return System.currentTimeMillis() > expireTime;
         }
+
+        /**
+         * Fresh entries can be used without asking the server
+         * @return true if the server gave an expiration time, and it is still in the future
+         */
+        public boolean isFresh() {
+            return expireTime > 0 && System.currentTimeMillis() <= expireTime;
+        }
+
+        /**
+         * Stale entries are expired but still inside the stale window, they can be used while a revalidation runs
+         * @return true if the entry can be served while it is revalidated
+         */
+        public boolean isStale() {
+            long now = System.currentTimeMillis();
+            return expireTime > 0 && now > expireTime && now <= expireTime + staleWindow;
+        }
+
+        private boolean isSweepable(long now) {
+            return expireTime > 0 && now > expireTime + staleWindow;
+        }
         public File getFile() { return entry$getFile(uri); }
     }
+
+    /**
+     * New file of an entry being written, see {@link #download(URI)}
+     */
+    public static final class Download extends OutputStream {
+        private final URI uri;
+        private final File tmp;
+        private final OutputStream out;
+        private long size;
+        private boolean done;
+        private boolean cached;
+        private boolean closed;
+
+        private Download(URI uri) throws IOException {
+            this.uri = uri;
+            File file = entry$getFile(uri);
+            this.tmp = File.createTempFile(file.getName() + ".", TMP_EXTENSION, file.getParentFile());
+            this.out = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 64 * 1024);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            size += len;
+        }
+
+        public long size() { return size; }
+
+        /**
+         * Moves the written data into place and saves the entry
+         * @return file with the data, it is a temporal file when the entry file cannot be replaced
+         * (like mapped files on Windows), the data is still readable but not cached and it is deleted on {@link #close()}
+         */
+        public File commit(String tag, long time, long expireTime) throws IOException {
+            if (done) throw new IllegalStateException("Download is already closed");
+            done = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (tmp.exists() && !tmp.delete()) LOGGER.warn(IT, "Cannot delete unsaved entry file of '{}' located in '{}'", uri, tmp.toString());
+                throw e;
+            }
+
+            File file = entry$getFile(uri);
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                pending$forget(file);
+            } catch (IOException e) {
+                LOGGER.warn(IT, "Failed to move cache file of '{}' into place, it will not be cached", uri, e);
+                return tmp; // DELETED ON CLOSE
+            }
+
+            cached = true;
+            Entry entry = new Entry(uri, tag, time, expireTime);
+            entry.size = size;
+            entry$saved(entry);
+            return file;
+        }
+
+        /**
+         * Discards the data when it was not committed, or the temporal file when it could not be moved into place
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            if (!done) {
+                done = true;
+                try {
+                    out.close();
+                } catch (IOException ignored) {}
+            }
+            if (!cached) file$delete(tmp, uri, "unsaved entry");
+        }
+    }
+
+    /**
+     * Counts the bytes read, so the journal replay knows where the last complete record ends
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Decoded BGRA frames of a cached picture, frames are read-only views of a mapped file
+     */
+    public static final class Pixels {
+        public final int width;
+        public final int height;
+        public final long[] delay;
+        public final ByteBuffer[] frames;
+        public final ByteBuffer mapping; // WHOLE FILE, SEE IOTool#unmap
+
+        Pixels(int width, int height, long[] delay, ByteBuffer[] frames, ByteBuffer mapping) {
+            this.width = width;
+            this.height = height;
+            this.delay = delay;
+            this.frames = frames;
+            this.mapping = mapping;
+        }
+    }
 }
\ No newline at end of file
@@ -4,6 +4,8 @@ import org.watermedia.WaterMedia;
 import org.watermedia.api.WaterMediaAPI;
 import org.watermedia.api.image.decoders.GifDecoder;
 import org.watermedia.api.math.MathAPI;
+import org.watermedia.core.tools.ArgTool;
+import org.watermedia.core.tools.DataTool;
 import org.watermedia.core.tools.IOTool;
 import org.watermedia.core.tools.JarTool;
 import org.watermedia.loaders.ILoader;
@@ -15,14 +17,22 @@ import java.io.File;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
 import static org.watermedia.WaterMedia.LOGGER;
 
 public class ImageAPI extends WaterMediaAPI {
     public static final Marker IT = MarkerManager.getMarker(ImageAPI.class.getSimpleName());
+    public static final ArgTool MAX_DIMENSION = new ArgTool("watermedia.image.maxDimension");
+    private static volatile int maxDimension = (int) Math.max(0, Math.min(Integer.MAX_VALUE, DataTool.parseLongOr(MAX_DIMENSION.value(), 0))); // 0 KEEPS THE ORIGINAL SIZE
+    public static final ArgTool MAX_BYTES = new ArgTool("watermedia.image.maxBytes");
+    private static volatile long maxBytes = DataTool.parseLongOr(MAX_BYTES.value(), 256L * 1024 * 1024); // 256 MiB
+    public static final ArgTool MAX_PIXELS = new ArgTool("watermedia.image.maxPixels");
+    private static volatile long maxPixels = DataTool.parseLongOr(MAX_PIXELS.value(), 128L * 1024 * 1024); // 512 MiB OF BGRA
 
     // IMAGE STORAGE - Using volatile for thread-safe lazy initialization
     private static final Map<String, ImageRenderer> LOADING_CACHE = new HashMap<>();
@@ -155,6 +165,111 @@ public class ImageAPI extends WaterMediaAPI {
         return IMG_LOADING;
     }
 
+    /**
+     * Fetched pictures bigger than this are downscaled while they are decoded, keeping the aspect ratio.
+     * Only applies to pictures fetched after the change.
+     * it can be also set with <code>-Dwatermedia.image.maxDimension</code>
+     * @param max max width or height in pixels, 0 to keep the original size
+     */
+    public static void setMaxDimension(int max) {
+        if (max < 0) throw new IllegalArgumentException("Max dimension cannot be negative");
+        maxDimension = max;
+    }
+
+    public static int getMaxDimension() { return maxDimension; }
+
+    /**
+     * Downloads bigger than this are aborted, they are streamed to disk so it only protects the disk and the bandwidth.
+     * it can be also set with <code>-Dwatermedia.image.maxBytes</code>
+     * @param max max size of a picture file in bytes, 0 for no limit
+     */
+    public static void setMaxBytes(long max) {
+        if (max < 0) throw new IllegalArgumentException("Max bytes cannot be negative");
+        maxBytes = max;
+    }
+
+    public static long getMaxBytes() { return maxBytes; }
+
+    /**
+     * Pictures with more pixels than this are refused before decoding them, it protects the heap from decompression bombs.
+     * it can be also set with <code>-Dwatermedia.image.maxPixels</code>
+     * @param max max width * height of a picture, 0 for no limit
+     */
+    public static void setMaxPixels(long max) {
+        if (max < 0) throw new IllegalArgumentException("Max pixels cannot be negative");
+        maxPixels = max;
+    }
+
+    public static long getMaxPixels() { return maxPixels; }
+
+    /**
+     * Cached pictures are evicted when their RAM and VRAM goes over this, least recently used first.
+     * Pictures in use are never evicted, only their CPU copies are dropped.
+     * it can be also set with <code>-Dwatermedia.image.memoryBudget</code>
+     * @param budget max bytes of all cached pictures, 0 for no limit
+     */
+    public static void setMemoryBudget(long budget) {
+        if (budget < 0) throw new IllegalArgumentException("Memory budget cannot be negative");
+        ImageCache.memoryBudget = budget;
+    }
+
+    public static long getMemoryBudget() { return ImageCache.memoryBudget; }
+
+    /**
+     * @return RAM and VRAM of all cached pictures in bytes, measured on the last eviction check
+     */
+    public static long getMemoryUsage() { return ImageCache.memoryUsage; }
+
+    /**
+     * Fetches a picture without an {@link ImageCache}, nothing is polled. The future completes with a renderer
+     * owned by the caller (release it when it is not used anymore) or fails with {@link ImageFetch.VideoTypeException}
+     * when the source must be played by a player.
+     * Cancelling the future stops the download and the decoding, unless other fetches waits for the same picture
+     * @param uri url of the picture
+     * @param renderThreadEx render thread executor, renderers nobody took are released on it
+     * @return future of the renderer
+     */
+    public static CompletableFuture<ImageRenderer> fetchAsync(URI uri, Executor renderThreadEx) {
+        return fetchAsync(uri, renderThreadEx, ImageFetch.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Fetches a picture without an {@link ImageCache}, see {@link #fetchAsync(URI, Executor)}
+     * @param uri url of the picture
+     * @param renderThreadEx render thread executor, renderers nobody took are released on it
+     * @param priority fetch priority, lower runs first, see {@link ImageFetch#PRIORITY_NORMAL}
+     * @return future of the renderer
+     */
+    public static CompletableFuture<ImageRenderer> fetchAsync(URI uri, Executor renderThreadEx, int priority) {
+        if (uri == null) throw new NullPointerException("URI cannot be null");
+        return new ImageFetch(uri).setPriority(priority).future(renderThreadEx);
+    }
+
+    /**
+     * Downloads pictures into the disk cache before they are visible, nothing is decoded.
+     * Prefetches runs after on-demand fetches and only uses a few workers, see {@link ImagePrefetch}
+     * @param uris urls of the pictures
+     * @param priority fetch priority, clamped to {@link ImageFetch#PRIORITY_LOW} or lower
+     * @return batch, it can be cancelled
+     */
+    public static ImagePrefetch prefetch(Collection<URI> uris, int priority) {
+        return new ImagePrefetch(uris, priority, null).start();
+    }
+
+    /**
+     * Downloads and decodes pictures before they are visible, decoded pictures are kept in unused caches
+     * that {@link #getCache(URI, Executor)} picks up ready, or evicted by the LRU if nobody asks for them.
+     * Prefetches runs after on-demand fetches and only uses a few workers, see {@link ImagePrefetch}
+     * @param uris urls of the pictures
+     * @param priority fetch priority, clamped to {@link ImageFetch#PRIORITY_LOW} or lower
+     * @param renderThreadEx render thread executor of the caches
+     * @return batch, it can be cancelled
+     */
+    public static ImagePrefetch prefetch(Collection<URI> uris, int priority, Executor renderThreadEx) {
+        if (renderThreadEx == null) throw new NullPointerException("Render thread executor cannot be null");
+        return new ImagePrefetch(uris, priority, renderThreadEx).start();
+    }
+
     /**
      * Gets a cache for a URL
      * if no exists then creates an unready one
@@ -165,10 +280,22 @@ public class ImageAPI extends WaterMediaAPI {
     public static ImageCache getCache(URI uri, Executor renderThreadEx) {
         if (uri == null) return null;
 
-        ImageCache image = ImageCache.CACHE.get(uri);
-        image = (image == null) ? new ImageCache(uri, renderThreadEx) : image.use();
-        ImageCache.CACHE.put(uri, image);
-        return image;
+        // PREFETCHED CACHES ARE QUEUED AS LOW, SOMEBODY WANTS IT NOW
+        return ImageCache.lookup(uri, renderThreadEx, ImageFetch.PRIORITY_NORMAL).promote(ImageFetch.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Gets a cache for a URL
+     * if no exists then creates an unready one, if exists and is still queued then it gets the new priority
+     * @param uri url of the picture
+     * @param renderThreadEx concurrent executor
+     * @param priority fetch priority, lower runs first (on-screen distance can be used directly), see {@link ImageFetch#PRIORITY_NORMAL}
+     * @return cache instance, if url was null or empty then returns also null
+     */
+    public static ImageCache getCache(URI uri, Executor renderThreadEx, int priority) {
+        if (uri == null) return null;
+
+        return ImageCache.lookup(uri, renderThreadEx, priority).prioritize(priority);
     }
 
     /**
@@ -1,39 +1,38 @@
 package org.watermedia.api.image;
 
+import org.watermedia.core.tools.ArgTool;
+import org.watermedia.core.tools.DataTool;
+
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import static org.watermedia.WaterMedia.LOGGER;
 
 public class ImageCache {
     private static final int MAX_CACHE_SIZE = 256;
-    
-    /**
-     * LRU cache with automatic eviction when size exceeds MAX_CACHE_SIZE.
-     * Uses access-order LinkedHashMap for LRU behavior.
-     */
-    static final Map<URI, ImageCache> CACHE = Collections.synchronizedMap(
-        new LinkedHashMap<URI, ImageCache>(128, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<URI, ImageCache> eldest) {
-                if (size() > MAX_CACHE_SIZE) {
-                    ImageCache cache = eldest.getValue();
-                    if (cache != null && cache.uses.get() <= 0) {
-                        cache.release();
-                        return true;
-                    }
-                }
-                return false;
-            }
-        }
-    );
+    public static final ArgTool MEMORY_BUDGET = new ArgTool("watermedia.image.memoryBudget");
+    static volatile long memoryBudget = DataTool.parseLongOr(MEMORY_BUDGET.value(), 768L * 1024 * 1024); // RAM + VRAM
+    static volatile long memoryUsage;
+    private static final long EVICT_INTERVAL = 1000; // MS BETWEEN BUDGET CHECKS
+    private static final int EVICT_SAMPLING = 64; // ONE OF EACH N LOOKUPS CHECKS THE INTERVAL
+    private static final AtomicLong LAST_EVICT = new AtomicLong();
+    private static final AtomicBoolean EVICTING = new AtomicBoolean();
+    private static int hand; // CLOCK POSITION, ONLY MOVED BY THE EVICTING THREAD
+    private static boolean warned; // LAST SWEEP ENDED OVER THE BUDGET AND IT WAS LOGGED, ONLY CHANGED BY THE EVICTING THREAD
+
+    /**
+     * Registry of the fetched pictures, lookups are lock-free.
+     * Eviction is an approximated LRU (CLOCK), lookups only marks the cache as referenced, see {@link #evict()}
+     */
+    static final ConcurrentHashMap<URI, ImageCache> CACHE = new ConcurrentHashMap<>(128);
 
     /**
      * @nullable
@@ -41,7 +40,8 @@ public class ImageCache {
     public final URI uri;
     private final ImageFetch fetch;
     private final Executor renderThreadEx;
-    private final AtomicInteger uses = new AtomicInteger(1);
+    private final AtomicInteger uses; // -1 ONCE RELEASED, NOBODY CAN USE IT AGAIN
+    private volatile boolean referenced = true; // CLOCK BIT, NEW CACHES SURVIVES THE FIRST SWEEP
 
     // STATUS
     private volatile Status status = Status.WAITING;
@@ -52,12 +52,24 @@ public class ImageCache {
     private volatile Exception exception;
 
     private final List<Consumer<ImageRenderer>> releaseListeners = new ArrayList<>();
+    private Runnable loadListener; // NOTIFIED ONCE, WHEN THE FIRST LOAD ENDS IN ANY WAY
 
     ImageCache(URI uri, Executor runnable) {
+        this(uri, runnable, ImageFetch.PRIORITY_NORMAL);
+    }
+
+    ImageCache(URI uri, Executor runnable, int priority) {
+        this(uri, runnable, priority, 1);
+    }
+
+    /**
+     * @param uses initial usages, unused caches are kept until the LRU evicts them
+     */
+    ImageCache(URI uri, Executor runnable, int priority, int uses) {
         this.uri = uri;
+        this.uses = new AtomicInteger(uses);
         this.renderThreadEx = runnable;
-        this.fetch = new ImageFetch(uri);
-        CACHE.put(uri, this);
+        this.fetch = new ImageFetch(uri).setPriority(priority);
     }
 
     ImageCache(ImageRenderer renderer) {
@@ -65,6 +77,7 @@ public class ImageCache {
         this.fetch = null;
         this.renderThreadEx = null;
         this.renderer = renderer;
+        this.uses = new AtomicInteger(1);
     }
 
     public boolean isCache() { return cache; }
@@ -72,16 +85,64 @@ public class ImageCache {
     public boolean isUsed() { return uses.get() > 0; }
     public ImageCache use() { uses.incrementAndGet(); return this; }
     public ImageCache deuse() {
-        if (uses.decrementAndGet() <= 0) release();
+        int uses;
+        do {
+            uses = this.uses.get();
+            if (uses <= 0) return this;
+        } while (!this.uses.compareAndSet(uses, uses == 1 ? -1 : uses - 1));
+        if (uses == 1) release();
         return this;
     }
 
+    /**
+     * Gets the registered cache of the uri or registers a new one, with one more usage
+     * @param priority priority of the fetch when the cache is created
+     * @return cache with one more usage, never released
+     */
+    static ImageCache lookup(URI uri, Executor renderThreadEx, int priority) {
+        while (true) {
+            ImageCache cache = CACHE.get(uri); // computeIfAbsent LOCKS THE BIN EVEN WHEN PRESENT ON JAVA 8
+            if (cache == null) {
+                cache = CACHE.computeIfAbsent(uri, key -> new ImageCache(key, renderThreadEx, priority, 0));
+                if (CACHE.size() > MAX_CACHE_SIZE) evict$throttled(); // CACHES IN USE CAN'T GO, NOT ON EACH MISS
+            }
+            if (cache.tryUse()) {
+                if (!cache.referenced) cache.referenced = true; // NO SHARED WRITES WHEN ALREADY MARKED
+                evict$maybe();
+                return cache;
+            }
+            CACHE.remove(uri, cache); // RELEASED MEANWHILE, REGISTER A NEW ONE
+        }
+    }
+
+    /**
+     * Adds a usage unless the cache was already released
+     */
+    boolean tryUse() {
+        int uses;
+        do {
+            uses = this.uses.get();
+            if (uses < 0) return false;
+        } while (!this.uses.compareAndSet(uses, uses + 1));
+        return true;
+    }
+
+    /**
+     * Releases the cache only if nobody uses it, lookups running at the same time gets a new cache
+     * @return true if it was released
+     */
+    boolean tryRelease() {
+        if (!uses.compareAndSet(0, -1)) return false;
+        release();
+        return true;
+    }
+
     /**
      * Calls to {@link ImageRenderer#flush()} when only have one usage in a safety way
      * @return self
      */
     public ImageCache flush() {
-        if (uses.get() == 1 && this.renderer != null && !this.renderer.isFlushed()) {
+        if (uses.get() == 1 && this.renderer != null && !this.renderer.isShared() && !this.renderer.isFlushed()) {
             renderer.flush();
         }
         return this;
@@ -92,12 +153,32 @@ public class ImageCache {
      * @return self
      */
     public ImageCache reset() {
-        if (uses.get() == 1 && this.renderer != null && this.renderer.isFlushed()) {
+        if (uses.get() == 1 && this.renderer != null && !this.renderer.isShared() && this.renderer.isFlushed()) {
             renderer.reset();
         }
         return this;
     }
 
+    /**
+     * Moves the fetch of this cache in the queue, only takes effect if it is not running yet
+     * @param priority lower runs first, see {@link ImageFetch#PRIORITY_NORMAL}
+     * @return self
+     */
+    public ImageCache prioritize(int priority) {
+        if (fetch != null) fetch.setPriority(priority);
+        return this;
+    }
+
+    /**
+     * Like {@link #prioritize(int)}, but never moves the fetch back in the queue
+     * @param priority lower runs first, see {@link ImageFetch#PRIORITY_NORMAL}
+     * @return self
+     */
+    ImageCache promote(int priority) {
+        if (fetch != null && fetch.getPriority() > priority) this.prioritize(priority);
+        return this;
+    }
+
     public int getUsages() { return uses.get(); }
     public Status getStatus() { return status; }
     public Exception getException() { return exception; }
@@ -114,21 +195,41 @@ public class ImageCache {
     }
 
     public void load() {
+        this.load(null);
+    }
+
+    /**
+     * Loads the picture, listener is notified when it is ready, failed or the cache was released meanwhile
+     * @param listener called once, on the fetch worker or on the releasing thread. Ignored if the cache was already loading
+     */
+    void load(Runnable listener) {
         if (fetch == null) return;
         synchronized (fetch) {
             if (!status.equals(Status.WAITING)) return;
             this.status = Status.LOADING;
+            this.loadListener = listener;
             fetch.setSuccessCallback((imageRenderer, isCache) -> {
                 synchronized (fetch) {
+                    // STALE CACHE WAS REVALIDATED WITH NEW DATA, SWAP IT
+                    if (this.status.equals(Status.READY) && this.cache && !isCache) {
+                        ImageRenderer stale = this.renderer;
+                        this.renderer = imageRenderer;
+                        imageRenderer.addLostCallback(() -> this.lost(imageRenderer));
+                        this.cache = false;
+                        if (stale != null) renderThreadEx.execute(stale::release);
+                        return;
+                    }
                     if (!this.status.equals(Status.LOADING)) {
                         renderThreadEx.execute(imageRenderer::release);
                         return;
                     }
                     this.renderer = imageRenderer;
+                    imageRenderer.addLostCallback(() -> this.lost(imageRenderer));
                     this.cache = isCache;
                     this.video = false;
                     this.exception = null;
                     this.status = Status.READY;
+                    this.loaded();
                 }
             }).setErrorCallback((exception, isVideo) -> {
                 synchronized (fetch) {
@@ -142,6 +243,7 @@ public class ImageCache {
                         this.exception = exception;
                         this.status = Status.FAILED;
                     }
+                    this.loaded();
                 }
             }).start();
         }
@@ -160,6 +262,18 @@ public class ImageCache {
         }
     }
 
+    /**
+     * The evicted textures of the renderer can't be uploaded again, fetches the picture again instead of drawing blanks
+     */
+    private void lost(ImageRenderer lost) {
+        synchronized (fetch) {
+            if (this.renderer != lost) return; // ALREADY REPLACED OR RELEASED
+            LOGGER.debug(ImageAPI.IT, "Renderer of '{}' lost its textures and pixels, loading it again", this.uri);
+            this.reload();
+        }
+        this.load();
+    }
+
     public void release() {
         if (fetch == null) return;
         synchronized (fetch) {
@@ -167,6 +281,9 @@ public class ImageCache {
                 LOGGER.warn(ImageAPI.IT, "Cache of '{}' is released with {} usages remaining", this.uri, this.uses.get());
             }
 
+            // NOBODY WANTS IT ANYMORE, DON'T WASTE A WORKER
+            fetch.abort();
+
             ImageRenderer imageRenderer = this.renderer;
             this.renderer = null;
             if (imageRenderer != null) {
@@ -174,8 +291,123 @@ public class ImageCache {
                 this.renderThreadEx.execute(imageRenderer::release);
             }
             this.status = Status.FORGOTTEN;
-            CACHE.remove(uri);
+            this.uses.compareAndSet(0, -1);
+            CACHE.remove(uri, this);
+            this.loaded();
+        }
+    }
+
+    /**
+     * @return RAM and VRAM held by the picture, in bytes
+     */
+    public long getByteSize() {
+        ImageRenderer renderer = this.renderer;
+        if (renderer == null || video) return 0;
+        return renderer.getMemorySize() + renderer.getTextureSize();
+    }
+
+    /**
+     * Runs {@link #evict()} at most once per second, called on each cache lookup.
+     * Only a few lookups reads the clock, it costs more than the lookup itself
+     */
+    static void evict$maybe() {
+        if (ThreadLocalRandom.current().nextInt(EVICT_SAMPLING) != 0) return;
+        evict$throttled();
+    }
+
+    /**
+     * Runs {@link #evict()} unless it already ran in the last {@link #EVICT_INTERVAL} ms
+     */
+    private static void evict$throttled() {
+        long now = System.currentTimeMillis();
+        long last = LAST_EVICT.get();
+        if (now - last < EVICT_INTERVAL || !LAST_EVICT.compareAndSet(last, now)) return;
+        evict();
+    }
+
+    /**
+     * Keeps the pictures under the memory budget and the registry under {@link #MAX_CACHE_SIZE} entries.
+     * Unused pictures not looked up since the last sweep are released first.
+     * When the pictures in use still overflows the budget, their CPU copies are dropped and the textures are kept.
+     * Must be called without holding any cache lock, releasing takes the lock of each evicted cache
+     */
+    static void evict() {
+        if (!EVICTING.compareAndSet(false, true)) return; // SOMEBODY ELSE IS ON IT
+        try {
+            evict$clock();
+        } finally {
+            EVICTING.set(false);
+        }
+    }
+
+    /**
+     * The hand sweeps the caches, referenced caches gets a second chance and loses the mark,
+     * unused caches without the mark are released. Two rounds at most, the first one may only clear marks
+     */
+    private static void evict$clock() {
+        ImageCache[] caches = CACHE.values().toArray(new ImageCache[0]);
+        int count = caches.length;
+        if (count == 0) {
+            memoryUsage = 0;
+            warned = false;
+            return;
+        }
+
+        long[] sizes = new long[count];
+        long usage = 0;
+        for (int i = 0; i < count; i++) {
+            sizes[i] = caches[i].getByteSize();
+            usage += sizes[i];
         }
+
+        long budget = memoryBudget;
+        boolean overBudget = budget > 0 && usage > budget;
+        if (overBudget || count > MAX_CACHE_SIZE) {
+            long before = usage;
+            int released = 0;
+            int start = hand % caches.length;
+            int step = 0;
+            for (; step < caches.length * 2 && ((budget > 0 && usage > budget) || count > MAX_CACHE_SIZE); step++) {
+                int i = (start + step) % caches.length;
+                ImageCache cache = caches[i];
+                if (sizes[i] < 0) continue; // RELEASED ON THE FIRST ROUND
+                if (cache.referenced) {
+                    cache.referenced = false;
+                    continue;
+                }
+                if (!cache.tryRelease()) continue;
+                usage -= sizes[i];
+                sizes[i] = -1;
+                count--;
+                released++;
+            }
+            hand = (start + step) % caches.length;
+
+            // IN USE, ONLY THE CPU COPIES CAN GO
+            for (int i = 0; i < caches.length && budget > 0 && usage > budget; i++) {
+                ImageRenderer renderer = caches[i].renderer;
+                if (renderer == null || !caches[i].isUsed()) continue;
+                usage -= renderer.trim();
+            }
+
+            LOGGER.debug(ImageAPI.IT, "Evicted {} pictures, memory usage went from {} to {} bytes (budget {})", released, before, usage, budget);
+        }
+
+        // SWEEPS RUNS EACH SECOND, ONLY CHANGES ARE WORTH A WARNING
+        boolean over = budget > 0 && usage > budget;
+        if (over && !warned) {
+            LOGGER.warn(ImageAPI.IT, "Pictures in use takes {} bytes, over the budget of {} bytes", usage, budget);
+        } else if (!over && warned) {
+            LOGGER.info(ImageAPI.IT, "Pictures in use are back under the budget of {} bytes, {} bytes used", budget, usage);
+        }
+        warned = over;
+        memoryUsage = usage;
+    }
+
+    private void loaded() {
+        Runnable listener = this.loadListener;
+        this.loadListener = null;
+        if (listener != null) listener.run();
     }
 
     public enum Status { WAITING, LOADING, READY, FORGOTTEN, FAILED; }
@@ -6,27 +6,36 @@ import org.watermedia.api.cache.CacheAPI;
 import org.watermedia.api.image.decoders.GifDecoder;
 import org.watermedia.api.network.NetworkAPI;
 import org.watermedia.api.network.patchs.AbstractPatch;
+import org.watermedia.api.render.RenderAPI;
+import org.watermedia.core.tools.ArgTool;
 import org.watermedia.core.tools.DataTool;
+import org.watermedia.core.tools.FormatTool;
+import org.watermedia.core.tools.IOTool;
+import org.watermedia.core.tools.NetTool;
 import org.watermedia.core.tools.ThreadTool;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URLConnection;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -35,26 +44,58 @@ import static java.net.HttpURLConnection.*;
 import static org.watermedia.api.image.ImageAPI.IT;
 
 public class ImageFetch implements Runnable {
-    private static final DateFormat FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z");
+    private static final ThreadLocal<DateFormat> FORMAT = ThreadLocal.withInitial(() -> {
+        // SimpleDateFormat IS NOT THREAD-SAFE, HTTP DATES ARE ALWAYS ENGLISH AND GMT
+        DateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    });
     
+    // PRIORITIES, LOWER RUNS FIRST (ON-SCREEN DISTANCE CAN BE USED AS IT IS)
+    public static final int PRIORITY_HIGHEST = Integer.MIN_VALUE;
+    public static final int PRIORITY_HIGH = -100;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_LOW = 100;
+    public static final int PRIORITY_LOWEST = Integer.MAX_VALUE;
+
     /**
-     * Bounded thread pool with rejection policy to prevent task accumulation.
-     * Uses CallerRunsPolicy to apply backpressure when queue is full.
+     * Fixed thread pool ordered by priority, queue is bounded by {@link #MAX_QUEUED}
+     * and rejected fetches fails on the error callback, never running on the caller thread.
      */
-    private static final ExecutorService EX = new ThreadPoolExecutor(
-        ThreadTool.minThreads(),
+    private static final int MAX_QUEUED = 1024;
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final ThreadPoolExecutor EX = new ThreadPoolExecutor(
+        Math.max(ThreadTool.minThreads() * 2, 4),
         Math.max(ThreadTool.minThreads() * 2, 4),
         60L, TimeUnit.SECONDS,
-        new LinkedBlockingQueue<>(100),
+        new PriorityBlockingQueue<>(),
         ThreadTool.factory("ImageFetch-Worker", Thread.NORM_PRIORITY + 1),
-        new ThreadPoolExecutor.CallerRunsPolicy()
+        (r, executor) -> ((Task) r).reject()
     );
-    
-    private static final String[] VID_MIMETYPES = new String[] { "video", "audio", "application/vnd.apple.mpegurl", "application/x-mpegurl", "video/x-matroska" };
+
+    static {
+        EX.allowCoreThreadTimeOut(true);
+    }
+
+    public static final ArgTool PROGRESSIVE_MODE = new ArgTool("watermedia.image.progressive");
+    private static final boolean PROGRESSIVE = !"false".equalsIgnoreCase(PROGRESSIVE_MODE.value());
+    public static final ArgTool PALETTED_GIFS = new ArgTool("watermedia.image.palettedGifs");
+    private static final boolean PALETTED = !"false".equalsIgnoreCase(PALETTED_GIFS.value()); // GIF FRAMES AS INDEX PLANES, 4x SMALLER
+    public static final ArgTool LAZY_GIFS = new ArgTool("watermedia.image.lazyGifs");
+    private static final boolean LAZY = !"false".equalsIgnoreCase(LAZY_GIFS.value()); // LONG GIFS ARE DECODED WHILE PLAYED
+    public static final ArgTool PROBE_MODE = new ArgTool("watermedia.image.probe");
+    private static final boolean PROBE = !"false".equalsIgnoreCase(PROBE_MODE.value()); // RANGE REQUEST BEFORE DOWNLOADING UNKNOWN SOURCES
+    private static final long MAP_THRESHOLD = 1024 * 1024; // SMALLER FILES ARE CHEAPER TO READ THAN TO MAP
 
     public final URI uri;
+    public boolean progressive = PROGRESSIVE;
+    public boolean decode = true;
     public BiConsumer<ImageRenderer, Boolean> successConsumer;
     public BiConsumer<Exception, Boolean> errConsumer;
+    private volatile int priority = PRIORITY_NORMAL;
+    private Task task;
+    private volatile Flight flight; // LED OR JOINED BY THIS FETCH
+    private volatile boolean aborted;
 
 
     public ImageFetch(URI uri) {
@@ -71,172 +112,477 @@ public class ImageFetch implements Runnable {
         return this;
     }
 
+    /**
+     * Enables or disables showing GIFs while they are downloaded, enabled by default
+     * it can be disabled globally with <code>-Dwatermedia.image.progressive=false</code>
+     * @param progressive true to hand over the renderer as soon as the first frame is decoded
+     * @return self
+     */
+    public ImageFetch setProgressive(boolean progressive) {
+        this.progressive = progressive;
+        return this;
+    }
+
+    /**
+     * Disables decoding, the picture is only downloaded into the cache and the success callback receives a null renderer.
+     * These fetches never share the download with others, sources already being fetched are skipped
+     * @param decode false to only download the picture
+     * @return self
+     */
+    public ImageFetch setDecode(boolean decode) {
+        this.decode = decode;
+        return this;
+    }
+
+    /**
+     * Changes the priority of the fetch, if it is already queued then it gets moved
+     * @param priority lower runs first, see {@link #PRIORITY_NORMAL}
+     * @return self
+     */
+    public ImageFetch setPriority(int priority) {
+        synchronized (this) {
+            this.priority = priority;
+            Task task = this.task;
+            if (task != null && task.priority != priority && EX.remove(task)) {
+                this.task = new Task(this, priority);
+                EX.execute(this.task);
+            }
+        }
+        return this;
+    }
+
+    public int getPriority() { return priority; }
+
+    /**
+     * Starts the fetch and completes the future with the first renderer, the renderer is owned by the caller.
+     * Later renderers (like the revalidation of a stale copy) and renderers arriving after a cancellation are released.
+     * Video sources completes it exceptionally with {@link VideoTypeException}.
+     * Cancelling the returned future aborts the fetch, see {@link #abort()}, dependent futures don't
+     * @param renderThreadEx executor of the render thread, unwanted renderers are released on it
+     * @return future of the renderer
+     */
+    public CompletableFuture<ImageRenderer> future(Executor renderThreadEx) {
+        CompletableFuture<ImageRenderer> future = new CompletableFuture<ImageRenderer>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) abort();
+                return cancelled;
+            }
+        };
+        this.setSuccessCallback((renderer, cache) -> {
+            if (!future.complete(renderer)) renderThreadEx.execute(renderer::release);
+        }).setErrorCallback((e, isVideo) -> {
+            future.completeExceptionally(isVideo && !(e instanceof VideoTypeException) ? new VideoTypeException(e) : e);
+        }).start();
+        return future;
+    }
+
     @Override
     public void run() {
+        Flight flight = null;
         try {
+            if (aborted) return;
             AbstractPatch.Result patch = NetworkAPI.patch(uri);
             if (patch == null) throw new IllegalArgumentException("Invalid URL");
             if (patch.assumeVideo) throw new VideoTypeException();
-            final CacheAPI.Entry cache = CacheAPI.getEntry(uri);
-
-            // READ FROM WHENEVER IT WAS LOCATED
-            URLConnection conn = null;
-            URI patchUri = patch.uri;
-            boolean retry = false;
-
-            do {
-                try {
-                    int code = 200; // AS EXPECTED
-                    conn = openConnection(patchUri, cache);
-
-                    // HTTP ADDRESS
-                    if (conn instanceof HttpURLConnection) {
-                        HttpURLConnection http = (HttpURLConnection) conn;
-                        code = http.getResponseCode();
-                        switch (code) {
-                            case HTTP_BAD_REQUEST:
-                                throw new IllegalArgumentException("Invalid request");
-                            case HTTP_FORBIDDEN:
-                                throw new ForbiddenException();
-                            case HTTP_NOT_FOUND:
-                                throw new NullPointerException("Resource not found");
-                            case HTTP_OK:
-                            case HTTP_NOT_MODIFIED:
-                                break;
-                            default:
-                                throw new IllegalStateException("HTTP Server responses an invalid status code: " + code);
-                        }
-                    }
 
-                    // GENERIC
-                    String type = conn.getContentType();
-                    if (type != null) {
-                        if (DataTool.startsWith(type, VID_MIMETYPES))
-                            throw new VideoTypeException();
+            // SAME RESOURCE IS ALREADY BEING FETCHED, IT WILL BE CACHED
+            if (!decode && Flight.isFlying(patch.uri)) {
+                LOGGER.debug(IT, "Skipped download of '{}', it is already being fetched", patch.uri);
+                successConsumer.accept(null, false);
+                return;
+            }
 
-                        if (!type.startsWith("image"))
-                            throw new NoImageException();
-                    } else {
-                        // Fallback: check file extension when MIME type is not available (e.g., local files)
-                        String path = patchUri.getPath();
-                        LOGGER.debug(IT, "MIME type is null for '{}', checking file extension. Path: '{}'", patchUri, path);
-                        if (path != null) {
-                            String lowerPath = path.toLowerCase();
-                            LOGGER.debug(IT, "Checking extension for path: '{}'", lowerPath);
-                            // Check for video file extensions
-                            if (lowerPath.endsWith(".mkv") || lowerPath.endsWith(".mp4") || 
-                                lowerPath.endsWith(".avi") || lowerPath.endsWith(".mov") || 
-                                lowerPath.endsWith(".webm") || lowerPath.endsWith(".flv") ||
-                                lowerPath.endsWith(".wmv") || lowerPath.endsWith(".m4v") ||
-                                lowerPath.endsWith(".mpg") || lowerPath.endsWith(".mpeg") ||
-                                lowerPath.endsWith(".m3u8") || lowerPath.endsWith(".m3u") ||
-                                lowerPath.endsWith(".ts") || lowerPath.endsWith(".m2ts")) {
-                                LOGGER.debug(IT, "Detected video file by extension: '{}'", lowerPath);
-                                throw new VideoTypeException();
-                            }
-                            // Check for audio file extensions
-                            if (lowerPath.endsWith(".mp3") || lowerPath.endsWith(".wav") || 
-                                lowerPath.endsWith(".ogg") || lowerPath.endsWith(".flac") ||
-                                lowerPath.endsWith(".aac") || lowerPath.endsWith(".m4a") ||
-                                lowerPath.endsWith(".wma") || lowerPath.endsWith(".opus")) {
-                                LOGGER.debug(IT, "Detected audio file by extension: '{}'", lowerPath);
-                                throw new VideoTypeException();
-                            }
-                            // If not a known image extension, throw exception
-                            if (!lowerPath.endsWith(".png") && !lowerPath.endsWith(".jpg") && 
-                                !lowerPath.endsWith(".jpeg") && !lowerPath.endsWith(".gif") && 
-                                !lowerPath.endsWith(".bmp") && !lowerPath.endsWith(".webp")) {
-                                LOGGER.debug(IT, "Not a known image extension: '{}'", lowerPath);
-                                throw new NoImageException();
-                            }
-                        } else {
-                            LOGGER.debug(IT, "Path is null for URI: '{}'", patchUri);
-                            throw new NoImageException();
-                        }
-                    }
+            // SAME RESOURCE IS ALREADY BEING FETCHED, WAIT FOR IT
+            flight = decode ? Flight.lead(this, patch.uri) : Flight.solo(this, patch.uri);
+            if (aborted) this.flight.leave(this); // ABORTED MEANWHILE, MAYBE THE FLIGHT ALREADY DELIVERED
+            if (flight == null) {
+                LOGGER.debug(IT, "Joined in-flight fetch of '{}'", patch.uri);
+                return;
+            }
+
+            fetch(patch, flight);
+        } catch (CancellationException e) {
+            LOGGER.debug(IT, "Fetch of '{}' was aborted", uri);
+        } catch (NoImageException | InternalDecoderException e) {
+            LOGGER.error(IT, "Invalid image source from '{}'", uri, e);
+            error(flight, e, false);
+        } catch (TooLargeException e) {
+            LOGGER.warn(IT, "Refused image from '{}': {}", uri, e.getMessage());
+            error(flight, e, false);
+        } catch (VideoTypeException e) {
+            LOGGER.debug(IT, "Detected a video type from '{}'", uri);
+            error(flight, e, true);
+        } catch (MalformedURLException e) {
+            LOGGER.warn(IT, "Failed to parse URI to URL, delegating to VLC '{}'", uri, e);
+            error(flight, e, true);
+        } catch (Exception e) {
+            LOGGER.error(IT, "Unhandled exception occurred while loading image from '{}'", uri, e);
+            error(flight, e, false);
+        } catch (Throwable t) {
+            LOGGER.error(IT, "Fatal exception occurred while loading image from '{}'", uri, t);
+            error(flight, new Exception("Fatal exception running image loading", t), false);
+        } finally {
+            if (flight != null) flight.land();
+        }
+    }
+
+    private void error(Flight flight, Exception e, boolean isVideo) {
+        if (flight != null) {
+            flight.error(e, isVideo);
+        } else {
+            errConsumer.accept(e, isVideo);
+        }
+    }
 
-                    // NOT MODIFIED SERVER
-                    if (cache != null && code == HTTP_NOT_MODIFIED) {
-                        // JUST REFRESH ENTRY DATA, MAYBE EXPIRATION TIME IS EXTENDED
-                        CacheAPI.updateEntry(new CacheAPI.Entry(patchUri, getEtagOr(conn, cache.getTag()), getLastModificationTime(conn), getExpirationTime(conn)));
+    private void fetch(AbstractPatch.Result patch, Flight flight) throws Exception {
+        flight.check();
+        try {
+            fetch$run(patch, flight);
+        } catch (Exception e) {
+            flight.check(); // DISCONNECTED BY AN ABORT
+            throw e;
+        }
+    }
 
-                        // CONSUME
-                        successConsumer.accept(readImages(cache), true);
-                    } else { // MODIFIED OR WHATEVER
-                        // READ DATA FROM SOURCE
-                        InputStream in = conn.getInputStream();
-                        byte[] data = DataTool.readAllBytes(in);
+    private void fetch$run(AbstractPatch.Result patch, Flight flight) throws Exception {
+        CacheAPI.Entry cache = CacheAPI.getEntry(patch.uri);
 
-                        // STORE CACHE
-                        CacheAPI.saveFile(patchUri, getEtagOr(conn, cache != null ? cache.getTag() : ""), getLastModificationTime(conn), getExpirationTime(conn), data);
+        // NOTHING TO DOWNLOAD
+        if (!decode && cache != null && cache.getFile().exists() && cache.isFresh()) {
+            flight.success(null, true);
+            return;
+        }
+
+        // SERVE FROM DISK WHEN POSSIBLE
+        boolean stale = false;
+        if (decode && cache != null && cache.getFile().exists() && (cache.isFresh() || cache.isStale())) {
+            try {
+                ImageRenderer renderer = readImages(cache);
+                if (cache.isFresh()) {
+                    LOGGER.debug(IT, "Serving fresh cache of '{}'", patch.uri);
+                    flight.success(renderer, true);
+                    return;
+                }
 
-                        LOGGER.debug(IT, "Successfully downloaded image from '{}'", patchUri);
+                // STALE-WHILE-REVALIDATE: HAND OVER THE STALE COPY, REVALIDATION CONTINUES IN THIS WORKER
+                LOGGER.debug(IT, "Serving stale cache of '{}' while revalidating", patch.uri);
+                flight.success(renderer, true);
+                stale = true;
+            } catch (Exception e) {
+                LOGGER.warn(IT, "Failed to read cache of '{}', dropping it", patch.uri, e);
+                CacheAPI.deleteEntry(patch.uri);
+                cache = null;
+            }
+        }
 
-                        // CONSUME
-                        successConsumer.accept(readImages(data), false);
+        // READ FROM WHENEVER IT WAS LOCATED
+        NetTool.Request request = null;
+        URLConnection conn = null;
+        URI patchUri = patch.uri;
+        boolean retry = false;
 
-                        // CLOSE
-                        in.close();
+        do {
+            try {
+                int code = 200; // AS EXPECTED
+                flight.check();
+                request = probe(patchUri, cache);
+                if (request == null) request = openConnection(patchUri, cache);
+                conn = request.connection();
+                flight.connect(conn);
+
+                // HTTP ADDRESS
+                if (conn instanceof HttpURLConnection) {
+                    HttpURLConnection http = (HttpURLConnection) conn;
+                    code = http.getResponseCode();
+                    switch (code) {
+                        case HTTP_BAD_REQUEST:
+                            throw new IllegalArgumentException("Invalid request");
+                        case HTTP_FORBIDDEN:
+                            throw new ForbiddenException();
+                        case HTTP_NOT_FOUND:
+                            throw new NullPointerException("Resource not found");
+                        case HTTP_OK:
+                        case HTTP_NOT_MODIFIED:
+                            break;
+                        default:
+                            throw new IllegalStateException("HTTP Server responses an invalid status code: " + code);
                     }
-                    retry = false;
-                } catch (Exception e) {
-                    if (e instanceof ForbiddenException) {
-                        AbstractPatch.Result result = patch.fallbackResult.compute(this.uri);
-
-                        if (result != null) {
-                            patchUri = result.uri;
-                            retry = true;
-                            continue;
-                        } else {
-                            patchUri = null;
+                }
+
+                // NOT MODIFIED SERVER
+                if (cache != null && code == HTTP_NOT_MODIFIED) {
+                    // JUST REFRESH ENTRY DATA, MAYBE EXPIRATION TIME IS EXTENDED
+                    CacheAPI.updateEntry(new CacheAPI.Entry(patchUri, getEtagOr(conn, cache.getTag()), getLastModificationTime(conn), getExpirationTime(conn)));
+                    request.close(); // DECODING DOES NOT NEED THE HOST SLOT
+
+                    // CONSUME (STALE COPY WAS ALREADY CONSUMED AND IS STILL VALID)
+                    if (!stale) flight.success(decode ? readImages(cache) : null, true);
+                } else { // MODIFIED OR WHATEVER
+                    InputStream in = new BufferedInputStream(conn.getInputStream());
+
+                    // SIGNATURE FIRST, CONTENT-TYPE AND EXTENSION ARE ONLY TRUSTED WHEN IT IS UNKNOWN
+                    FormatTool.Format format = FormatTool.detect(in, conn.getContentType(), patchUri);
+                    if (format.isMedia()) throw new VideoTypeException(); // THE REST OF THE BODY IS DROPPED ON CLOSE
+                    if (!format.isImage()) throw new NoImageException();
+                    long maxBytes = ImageAPI.getMaxBytes();
+                    if (maxBytes > 0 && conn.getContentLengthLong() > maxBytes) throw new TooLargeException("Picture has " + conn.getContentLengthLong() + " bytes, limit is " + maxBytes);
+
+                    if (decode && progressive && format == FormatTool.Format.GIF) {
+                        // GIFS ARE SHOWN WHILE THEY ARE DOWNLOADED
+                        readProgressive(patchUri, conn, cache, in, flight);
+                    } else {
+                        // STREAM DATA INTO THE CACHE, THE HEAP NEVER HOLDS THE WHOLE FILE
+                        try (CacheAPI.Download download = CacheAPI.download(patchUri)) {
+                            byte[] buffer = new byte[16 * 1024];
+                            int read;
+                            while ((read = in.read(buffer)) != -1) {
+                                flight.check();
+                                if (maxBytes > 0 && download.size() + read > maxBytes) throw new TooLargeException("Picture exceeds the limit of " + maxBytes + " bytes");
+                                download.write(buffer, 0, read);
+                            }
+                            File file = download.commit(getEtagOr(conn, cache != null ? cache.getTag() : ""), getLastModificationTime(conn), getExpirationTime(conn));
+                            in.close();
+                            request.close(); // BODY IS ON DISK, DECODING DOES NOT NEED THE HOST SLOT
+
+                            LOGGER.debug(IT, "Successfully downloaded image from '{}'", patchUri);
+                            flight.check();
+
+                            // CONSUME (WHEN STALE COPY WAS CONSUMED, THIS REPLACES IT)
+                            flight.success(decode ? savePixels(patchUri, readImages(file)) : null, false);
                         }
                     }
 
-                    // READ FROM CACHE AS LAST RESORT
-                    if (cache == null || !cache.getFile().exists()) {
-                        throw e;
+                    // CLOSE
+                    in.close();
+                }
+                retry = false;
+            } catch (Exception e) {
+                if (e instanceof CancellationException) throw e;
+                if (e instanceof ForbiddenException) {
+                    AbstractPatch.Result result = patch.fallbackResult.compute(this.uri);
+
+                    if (result != null) {
+                        patchUri = result.uri;
+                        retry = true;
+                        continue;
+                    } else {
+                        patchUri = null;
                     }
+                }
 
-                    LOGGER.error(IT, "Failed to fetch image, delegating to cache files");
+                // STALE COPY IS ALREADY ON SCREEN, KEEP IT
+                if (stale) {
+                    LOGGER.warn(IT, "Failed to revalidate '{}', keeping stale copy", patchUri, e);
+                    return;
+                }
 
-                    successConsumer.accept(readImages(cache), true);
-                } finally {
-                    if (conn instanceof HttpURLConnection) ((HttpURLConnection) conn).disconnect();
+                // READ FROM CACHE AS LAST RESORT
+                if (cache == null || !cache.getFile().exists()) {
+                    throw e;
                 }
-            } while (retry);
-        } catch (NoImageException | InternalDecoderException e) {
-            LOGGER.error(IT, "Invalid image source from '{}'", uri, e);
-            errConsumer.accept(e, false);
-        } catch (VideoTypeException e) {
-            LOGGER.debug(IT, "Detected a video type from '{}'", uri);
-            errConsumer.accept(e, true);
-        } catch (MalformedURLException e) {
-            LOGGER.warn(IT, "Failed to parse URI to URL, delegating to VLC '{}'", uri, e);
-            errConsumer.accept(e, true);
-        } catch (Exception e) {
-            LOGGER.error(IT, "Unhandled exception occurred while loading image from '{}'", uri, e);
-            errConsumer.accept(e, false);
-        } catch (Throwable t) {
-            LOGGER.error(IT, "Fatal exception occurred while loading image from '{}'", uri, t);
-            errConsumer.accept(new Exception("Fatal exception running image loading", t), false);
-        }
+
+                LOGGER.error(IT, "Failed to fetch image, delegating to cache files");
+                if (request != null) request.close();
+
+                flight.success(decode ? readImages(cache) : null, true);
+            } finally {
+                if (request != null) request.close(); // KEEPS THE CONNECTION ALIVE FOR THE NEXT PICTURE
+            }
+        } while (retry);
     }
 
     public void start() {
-        EX.execute(this);
+        Task task;
+        synchronized (this) {
+            if (this.task != null) return; // ALREADY QUEUED
+            task = this.task = new Task(this, priority);
+        }
+        if (EX.getQueue().size() >= MAX_QUEUED) {
+            task.reject();
+            return;
+        }
+        EX.execute(task);
+    }
+
+    /**
+     * Stops the fetch, queued fetches are removed from the queue and running ones stops downloading and decoding
+     * as soon as possible, unless other fetches are waiting for the same picture. Callbacks are not called anymore,
+     * except the success callback of the leading fetch when a renderer was already on its way (it must release it).
+     * Aborted fetches cannot be started again
+     */
+    public void abort() {
+        aborted = true;
+        cancel();
+        Flight flight = this.flight;
+        if (flight != null) flight.leave(this);
+    }
+
+    /**
+     * Removes the fetch from the queue if it was not started yet
+     * @return true if the fetch was cancelled
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            Task task = this.task;
+            if (task == null || !EX.remove(task)) return false;
+            this.task = null;
+        }
+        LOGGER.debug(IT, "Cancelled queued fetch of '{}'", uri);
+        return true;
     }
 
     public ImageRenderer readImages(CacheAPI.Entry cache) throws Exception {
-        try (InputStream in = Files.newInputStream(cache.getFile().toPath())) {
-            byte[] data = DataTool.readAllBytes(in);
-            return readImages(data);
+        // DECODED PIXELS SKIPS THE DECODER
+        CacheAPI.Pixels pixels = CacheAPI.loadPixels(cache);
+        int max = ImageAPI.getMaxDimension();
+        if (pixels != null && max > 0 && Math.max(pixels.width, pixels.height) > max) {
+            LOGGER.debug(IT, "Decoded pixels of '{}' are bigger than {}px, decoding it again", cache.getUri(), max);
+            IOTool.unmap(pixels.mapping);
+            pixels = null;
+        }
+        if (pixels != null) {
+            LOGGER.debug(IT, "Using decoded pixels of '{}'", cache.getUri());
+            ImageRenderer renderer = new ImageRenderer(pixels.frames, pixels.width, pixels.height, pixels.delay);
+            renderer.setSource(cache.getUri());
+            renderer.setMapping(pixels.mapping);
+            return renderer;
+        }
+
+        return savePixels(cache.getUri(), readImages(cache.getFile()));
+    }
+
+    /**
+     * Decodes a file, big files are mapped and unmapped once decoded, unless a lazy GIF keeps reading from it
+     */
+    private ImageRenderer readImages(File file) throws Exception {
+        ByteBuffer data = IOTool.readBuffer(file.toPath(), MAP_THRESHOLD);
+        ImageRenderer renderer = null;
+        try {
+            renderer = readImages(data);
+        } finally {
+            if (renderer != null && renderer.isLazy()) renderer.setMapping(data);
+            else IOTool.unmap(data);
+        }
+        return renderer;
+    }
+
+    private static ImageRenderer savePixels(URI uri, ImageRenderer renderer) {
+        if (!CacheAPI.isDecodedTier()) return renderer;
+
+        // PALETTED FRAMES ARE SMALLER THAN THEIR DECODED PIXELS. PROGRESSIVE RENDERERS ARE ALREADY DRAWN,
+        // SO BUFFERS ARE PINNED AND WRITTEN WITHOUT BLOCKING THE RENDER THREAD
+        ByteBuffer[] frames;
+        long[] delay;
+        synchronized (renderer) {
+            frames = renderer.pin();
+            delay = renderer.getDelay();
+        }
+        if (frames == null) return renderer;
+        try {
+            if (CacheAPI.savePixels(uri, renderer.width, renderer.height, delay, frames)) renderer.setSource(uri);
+        } finally {
+            renderer.unpin();
+        }
+        return renderer;
+    }
+
+    private static int subsampling(int width, int height) {
+        int max = ImageAPI.getMaxDimension();
+        int size = Math.max(width, height);
+        if (max <= 0 || size <= max) return 1;
+        return (size + max - 1) / max;
+    }
+
+    /**
+     * Decodes a GIF while it is downloaded, the renderer is handed over as soon as the first frame is ready
+     * and the rest of the frames are appended into it
+     */
+    private void readProgressive(URI uri, URLConnection conn, CacheAPI.Entry cache, InputStream in, Flight flight) throws Exception {
+        try (CacheAPI.Download data = CacheAPI.download(uri)) {
+            readProgressive(uri, conn, cache, in, flight, data);
         }
     }
 
+    private void readProgressive(URI uri, URLConnection conn, CacheAPI.Entry cache, InputStream in, Flight flight, CacheAPI.Download data) throws Exception {
+        ImageRenderer[] renderer = new ImageRenderer[1];
+        long maxBytes = ImageAPI.getMaxBytes();
+        boolean[] exceeded = new boolean[1];
+
+        GifDecoder gif = new GifDecoder().setPaletted(PALETTED).setMaxDimension(ImageAPI.getMaxDimension()).setMaxPixels(ImageAPI.getMaxPixels());
+        gif.setFrameListener((index, frame, delay) -> {
+            ByteBuffer buffer = frame != null ? RenderAPI.getImageBuffer(frame) : null;
+            if (index == 0) {
+                renderer[0] = buffer != null ? new ImageRenderer(buffer, frame.getWidth(), frame.getHeight(), delay) : new ImageRenderer(gif.getPalettedGif());
+                LOGGER.debug(IT, "First frame of '{}' is ready, streaming the rest", uri);
+                flight.success(renderer[0], false);
+            } else if (!renderer[0].append(buffer, delay)) {
+                throw new CancellationException("Renderer was released");
+            }
+        });
+
+        int status;
+        try {
+            status = gif.read(new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    flight.check();
+                    int b = super.read();
+                    if (b != -1) write(new byte[] { (byte) b }, 0, 1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    flight.check();
+                    int n = super.read(b, off, len);
+                    if (n > 0) write(b, off, n);
+                    return n;
+                }
+
+                private void write(byte[] b, int off, int len) throws IOException {
+                    if (maxBytes > 0 && data.size() + len > maxBytes) {
+                        exceeded[0] = true;
+                        throw new IOException("Picture exceeds the limit of " + maxBytes + " bytes");
+                    }
+                    data.write(b, off, len);
+                }
+            });
+        } catch (CancellationException e) {
+            LOGGER.debug(IT, "Stopped streaming '{}', nobody is using it anymore", uri);
+            return;
+        }
+
+        if (renderer[0] == null) {
+            if (exceeded[0]) throw new TooLargeException("Picture exceeds the limit of " + maxBytes + " bytes");
+            if (status == GifDecoder.STATUS_TOO_LARGE) throw new TooLargeException("Gif exceeds the limit of " + ImageAPI.getMaxPixels() + " pixels");
+            throw new InternalDecoderException("Failed to decode gif, status code: " + status);
+        }
+
+        if (status == GifDecoder.STATUS_OK) {
+            data.commit(getEtagOr(conn, cache != null ? cache.getTag() : ""), getLastModificationTime(conn), getExpirationTime(conn));
+            savePixels(uri, renderer[0]);
+            LOGGER.debug(IT, "Successfully streamed image from '{}'", uri);
+        } else if (exceeded[0]) {
+            LOGGER.warn(IT, "Gif from '{}' exceeds the limit of {} bytes, keeping {} decoded frames", uri, maxBytes, gif.getFrameCount());
+        } else {
+            LOGGER.warn(IT, "Gif from '{}' was cut at frame {} (status code: {}), keeping decoded frames", uri, gif.getFrameCount(), status);
+        }
+        renderer[0].complete();
+    }
+
     public ImageRenderer readImages(byte[] data) throws Exception {
+        return readImages(ByteBuffer.wrap(data));
+    }
+
+    public ImageRenderer readImages(ByteBuffer data) throws Exception {
+        // IMAGE IO ALWAYS DELEGATES GIFS, DON'T EVEN TRY IT
+        if (FormatTool.sniff(data) == FormatTool.Format.GIF) return readGif(data);
+
         String type = "";
 
-        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+        try (ImageInputStream stream = new IOTool.ByteBufferImageInputStream(data)) {
             Iterator<ImageReader> iterator = ImageIO.getImageReaders(stream);
 
             // IMAGE IO DECODING
@@ -244,6 +590,12 @@ public class ImageFetch implements Runnable {
                 ImageReader reader = iterator.next();
 
                 reader.setInput(stream, false, false);
+
+                // DECOMPRESSION BOMBS ARE REFUSED BY THEIR HEADER
+                long maxPixels = ImageAPI.getMaxPixels();
+                if (maxPixels > 0 && (long) reader.getWidth(0) * reader.getHeight(0) > maxPixels) {
+                    throw new TooLargeException("Picture has " + reader.getWidth(0) + "x" + reader.getHeight(0) + " pixels, limit is " + maxPixels);
+                }
                 int frames = reader.getNumImages(true);
 
                 BufferedImage[] images = new BufferedImage[frames];
@@ -278,8 +630,11 @@ public class ImageFetch implements Runnable {
                             }
                         }
 
-                        // STORE FRAME
-                        images[i] = reader.read(i);
+                        // STORE FRAME, SUBSAMPLED WHEN IT IS TOO BIG
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        int scale = subsampling(reader.getWidth(i), reader.getHeight(i));
+                        if (scale > 1) param.setSourceSubsampling(scale, scale, 0, 0);
+                        images[i] = reader.read(i, param);
                     }
 
                     if (noDelayFrames > 0) LOGGER.debug(IT, "Gif decoder reports {} frames without delaay", noDelayFrames);
@@ -303,14 +658,20 @@ public class ImageFetch implements Runnable {
             LOGGER.debug(IT, "Error: ", e);
 
             // IF WE FAILED TO DECODE GIF, DELEGATE TO OUR GIF DECODER (IDC ABOUT THE GIF ERROR)
-            GifDecoder gif = new GifDecoder();
-            int status = gif.read(data);
+            return readGif(data);
+        }
+    }
 
-            if (status == GifDecoder.STATUS_OK) {
-                return ImageAPI.renderer(gif);
-            } else {
-                throw new InternalDecoderException("Failed to decode gif, status code: " + status);
-            }
+    private static ImageRenderer readGif(ByteBuffer data) throws Exception {
+        GifDecoder gif = new GifDecoder().setPaletted(PALETTED).setLazy(LAZY).setMaxDimension(ImageAPI.getMaxDimension()).setMaxPixels(ImageAPI.getMaxPixels());
+        int status = gif.read(data);
+
+        if (status == GifDecoder.STATUS_OK) {
+            return ImageAPI.renderer(gif);
+        } else if (status == GifDecoder.STATUS_TOO_LARGE) {
+            throw new TooLargeException("Gif exceeds the limit of " + ImageAPI.getMaxPixels() + " pixels");
+        } else {
+            throw new InternalDecoderException("Failed to decode gif, status code: " + status);
         }
     }
 
@@ -321,14 +682,20 @@ public class ImageFetch implements Runnable {
     }
 
     private static long getExpirationTime(URLConnection conn) {
-        long time;
+        long time = -1;
 
         // FIRST WAY
-        String maxAge = conn.getHeaderField("max-age");
-        if (maxAge == null || maxAge.isEmpty()) maxAge = "-1";
-
-        long parsed = DataTool.parseLongOr(maxAge, -1);
-        time = parsed == -1 ? -1 : System.currentTimeMillis() + (parsed * 100);
+        String cacheControl = conn.getHeaderField("Cache-Control");
+        if (cacheControl != null && !cacheControl.isEmpty()) {
+            for (String directive: cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) return -1; // ALWAYS REVALIDATE
+                if (directive.startsWith("max-age=")) {
+                    long parsed = DataTool.parseLongOr(directive.substring(8), -1);
+                    if (parsed >= 0) time = System.currentTimeMillis() + (parsed * 1000);
+                }
+            }
+        }
         if (time != -1)
             return time;
 
@@ -336,7 +703,7 @@ public class ImageFetch implements Runnable {
         String expires = conn.getHeaderField("Expires");
         if (expires != null && !expires.isEmpty()) {
             try {
-                time = FORMAT.parse(expires).getTime();
+                time = FORMAT.get().parse(expires).getTime();
             } catch (ParseException | NumberFormatException ignored) {}
         }
 
@@ -348,7 +715,7 @@ public class ImageFetch implements Runnable {
         String date = conn.getHeaderField("Last-Modified");
         if (date != null && !date.isEmpty()) {
             try {
-                time = FORMAT.parse(date).getTime();
+                time = FORMAT.get().parse(date).getTime();
             } catch (ParseException | NumberFormatException ignored) {}
         }
 
@@ -370,15 +737,235 @@ public class ImageFetch implements Runnable {
         return null;
     }
 
-    private static URLConnection openConnection(URI uri, CacheAPI.Entry cache) throws IOException {
-        URLConnection conn = uri.toURL().openConnection();
+    /**
+     * Asks only for the first bytes of sources that doesn't look like a picture, videos and pages
+     * are rejected before any bulk transfer. Servers ignoring the range already sent the whole picture
+     * @return the full response when the range was ignored, null when the picture must be requested
+     */
+    private static NetTool.Request probe(URI uri, CacheAPI.Entry cache) throws Exception {
+        if (!PROBE || cache != null) return null; // CACHED SOURCES WERE ALREADY PICTURES
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) return null;
+        if (FormatTool.byExtension(uri).isImage()) return null;
+
+        NetTool.Request request = openConnection(uri, null);
+        boolean keep = false;
+        try {
+            HttpURLConnection http = request.http();
+            http.setRequestProperty("Range", "bytes=0-" + (FormatTool.SNIFF_SIZE - 1));
+            int code = http.getResponseCode();
+            if (code == HTTP_OK) { // RANGE IS NOT SUPPORTED, IT IS THE FULL RESPONSE
+                keep = true;
+                return request;
+            }
+            if (code != HTTP_PARTIAL) return null; // THE REAL REQUEST HANDLES IT
+
+            FormatTool.Format format = FormatTool.detect(new BufferedInputStream(http.getInputStream(), FormatTool.SNIFF_SIZE), http.getContentType(), uri);
+            LOGGER.debug(IT, "Probed '{}' as {}", uri, format);
+            if (format.isMedia()) throw new VideoTypeException();
+            if (!format.isImage()) throw new NoImageException();
+            return null;
+        } finally {
+            if (!keep) request.close(); // PERMIT MUST BE RELEASED BEFORE THE REAL REQUEST
+        }
+    }
+
+    private static NetTool.Request openConnection(URI uri, CacheAPI.Entry cache) throws IOException {
+        NetTool.Request request = NetTool.request(uri, "GET");
+        URLConnection conn = request.connection();
         conn.setDefaultUseCaches(false);
         conn.setRequestProperty("Accept", "image/*");
         if (cache != null && cache.getFile().exists()) {
             if (cache.getTag() != null) conn.setRequestProperty("If-None-Match", cache.getTag());
-            else if (cache.getTime() != -1) conn.setRequestProperty("If-Modified-Since", FORMAT.format(new Date(cache.getTime())));
+            else if (cache.getTime() != -1) conn.setRequestProperty("If-Modified-Since", FORMAT.get().format(new Date(cache.getTime())));
+        }
+        return request;
+    }
+
+    private static final class Task implements Runnable, Comparable<Task> {
+        private final ImageFetch fetch;
+        private final int priority;
+        private final long sequence = SEQUENCE.getAndIncrement();
+
+        private Task(ImageFetch fetch, int priority) {
+            this.fetch = fetch;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            synchronized (fetch) {
+                if (fetch.task != this) return; // CANCELLED OR MOVED
+                fetch.task = null;
+            }
+            fetch.run();
+        }
+
+        private void reject() {
+            synchronized (fetch) {
+                if (fetch.task == this) fetch.task = null;
+            }
+            LOGGER.warn(IT, "Fetch queue is full, rejected fetch of '{}'", fetch.uri);
+            fetch.errConsumer.accept(new RejectedExecutionException("Fetch queue is full"), false);
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            int c = Integer.compare(priority, o.priority);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    /**
+     * Single-flight of a resource, first fetch leads the download and decoding while
+     * the others wait for the same result. Each waiter receives its own share of the renderer
+     */
+    private static final class Flight {
+        private static final Map<URI, Flight> INFLIGHT = new ConcurrentHashMap<>();
+
+        private final URI uri;
+        private final ImageFetch leader;
+        private final List<ImageFetch> waiters = new ArrayList<>();
+        private final List<ImageFetch> pending = new ArrayList<>();
+        private ImageRenderer last;
+        private boolean lastCache;
+        private boolean landed;
+        private volatile boolean abandoned;
+        private URLConnection connection;
+
+        private Flight(URI uri, ImageFetch leader) {
+            this.uri = uri;
+            this.leader = leader;
+            this.waiters.add(leader);
+            this.pending.add(leader);
+        }
+
+        /**
+         * Leads a new flight of the uri or joins the one already running
+         * @return the flight to lead, or null if the fetch joined another flight
+         */
+        static Flight lead(ImageFetch fetch, URI uri) {
+            Flight flight = new Flight(uri, fetch);
+            while (true) {
+                Flight current = INFLIGHT.putIfAbsent(uri, flight);
+                if (current == null) return fetch.flight = flight;
+                fetch.flight = current;
+                if (current.join(fetch)) return null;
+                INFLIGHT.remove(uri, current); // LANDED, BUT NOT REMOVED YET
+            }
+        }
+
+        /**
+         * Flight of a single fetch, nobody can join it
+         */
+        static Flight solo(ImageFetch fetch, URI uri) {
+            return fetch.flight = new Flight(uri, fetch);
+        }
+
+        static boolean isFlying(URI uri) {
+            return INFLIGHT.containsKey(uri);
+        }
+
+        private boolean join(ImageFetch fetch) {
+            ImageRenderer renderer;
+            boolean cache;
+            synchronized (this) {
+                if (landed || abandoned) return false;
+                if (!waiters.contains(fetch)) waiters.add(fetch);
+
+                // LATE WAITERS RECEIVE WHAT WAS ALREADY DELIVERED
+                renderer = last != null ? last.share() : null;
+                cache = lastCache;
+                if (renderer == null) {
+                    if (!pending.contains(fetch)) pending.add(fetch);
+                    return true;
+                }
+                pending.remove(fetch);
+            }
+            fetch.successConsumer.accept(renderer, cache);
+            return true;
+        }
+
+        void success(ImageRenderer renderer, boolean cache) {
+            List<ImageFetch> targets;
+            List<ImageRenderer> shares = new ArrayList<>();
+            synchronized (this) {
+                this.last = renderer;
+                this.lastCache = cache;
+                targets = new ArrayList<>(waiters);
+                if (targets.isEmpty()) targets.add(leader); // NOBODY WANTS IT, THE LEADER DISPOSES IT
+                shares.add(renderer); // FIRST WAITER TAKES THE ORIGINAL REFERENCE
+                for (int i = 1; i < targets.size(); i++) shares.add(renderer.share());
+                pending.clear();
+            }
+
+            for (int i = 0; i < targets.size(); i++) {
+                ImageRenderer share = shares.get(i);
+                if (share != null || renderer == null) targets.get(i).successConsumer.accept(share, cache); // DOWNLOAD-ONLY FLIGHTS HAVE NO RENDERER
+            }
+        }
+
+        void error(Exception e, boolean isVideo) {
+            List<ImageFetch> targets;
+            synchronized (this) {
+                targets = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (ImageFetch fetch: targets) {
+                fetch.errConsumer.accept(e, isVideo);
+            }
+        }
+
+        /**
+         * Cuts the download of the flight when nobody waits for it anymore
+         */
+        void connect(URLConnection connection) {
+            synchronized (this) {
+                this.connection = connection;
+            }
+            check();
+        }
+
+        /**
+         * @throws CancellationException when nobody waits for the result anymore
+         */
+        void check() {
+            if (abandoned) throw new CancellationException("Nobody waits for '" + uri + "' anymore");
+        }
+
+        /**
+         * Removes a fetch from the flight, when the last one leaves the flight is abandoned
+         * and its download is disconnected
+         */
+        void leave(ImageFetch fetch) {
+            URLConnection connection;
+            synchronized (this) {
+                waiters.remove(fetch);
+                pending.remove(fetch);
+                if (!waiters.isEmpty() || abandoned || landed) return;
+                abandoned = true;
+                INFLIGHT.remove(uri, this); // NEW FETCHES DON'T JOIN IT
+                connection = this.connection;
+            }
+            LOGGER.debug(IT, "Flight of '{}' was abandoned", uri);
+            if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).disconnect(); // UNBLOCKS THE READ
+        }
+
+        void land() {
+            List<ImageFetch> orphans;
+            synchronized (this) {
+                landed = true;
+                INFLIGHT.remove(uri, this);
+                orphans = new ArrayList<>(pending);
+                orphans.remove(leader);
+                pending.clear();
+            }
+
+            // NOTHING REACHED THEM, LET THEM FETCH BY THEMSELVES
+            for (ImageFetch fetch: orphans) {
+                LOGGER.debug(IT, "In-flight fetch of '{}' landed without result for a waiter, fetching again", uri);
+                fetch.start();
+            }
         }
-        return conn;
     }
 
     private static class InternalDecoderException extends Exception {
@@ -386,7 +973,21 @@ public class ImageFetch implements Runnable {
             super(msg);
         }
     }
-    private static class VideoTypeException extends Exception {}
+    private static class TooLargeException extends Exception {
+        public TooLargeException(String msg) {
+            super(msg);
+        }
+    }
+    /**
+     * The source is a video or an audio, it must be played by a player
+     */
+    public static class VideoTypeException extends Exception {
+        public VideoTypeException() {}
+
+        public VideoTypeException(Throwable cause) {
+            super(cause);
+        }
+    }
     private static class NoImageException extends Exception {}
     private static class ForbiddenException extends NoImageException {}
 }
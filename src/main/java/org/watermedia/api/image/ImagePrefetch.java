@@ -0,0 +1,162 @@
+package org.watermedia.api.image;
+
+import org.watermedia.core.tools.ArgTool;
+import org.watermedia.core.tools.DataTool;
+import org.watermedia.core.tools.ThreadTool;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.watermedia.WaterMedia.LOGGER;
+import static org.watermedia.api.image.ImageAPI.IT;
+
+/**
+ * Batch of pictures fetched before they are visible, see {@link ImageAPI#prefetch(Collection, int)}.
+ * Batches shares a few fetch slots, so on-demand fetches always find a free worker,
+ * and their priority is never higher than {@link ImageFetch#PRIORITY_LOW}
+ */
+public class ImagePrefetch {
+    public static final ArgTool PREFETCH_SLOTS = new ArgTool("watermedia.image.prefetchSlots");
+    private static final int SLOTS = (int) Math.max(1, DataTool.parseLongOr(PREFETCH_SLOTS.value(), Math.max(ThreadTool.minThreads(), 2)));
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+    private static final AtomicInteger PUMPS = new AtomicInteger(); // PENDING PUMPS, ONLY ONE THREAD PUMPS AT ONCE
+    private static final Queue<ImagePrefetch> BATCHES = new ConcurrentLinkedQueue<>();
+
+    private final Queue<URI> pending;
+    private final Map<URI, Object> running = new ConcurrentHashMap<>(); // ImageFetch WHEN DOWNLOADING, ImageCache WHEN DECODING
+    private final AtomicInteger remaining;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final int priority;
+    private final Executor renderThreadEx;
+    private volatile boolean cancelled;
+
+    ImagePrefetch(Collection<URI> uris, int priority, Executor renderThreadEx) {
+        LinkedHashSet<URI> unique = new LinkedHashSet<>(uris);
+        unique.remove(null);
+        this.pending = new ConcurrentLinkedQueue<>(unique);
+        this.remaining = new AtomicInteger(pending.size());
+        this.priority = Math.max(priority, ImageFetch.PRIORITY_LOW);
+        this.renderThreadEx = renderThreadEx;
+    }
+
+    ImagePrefetch start() {
+        if (pending.isEmpty()) {
+            future.complete(null);
+            return this;
+        }
+        LOGGER.debug(IT, "Prefetching {} pictures", pending.size());
+        BATCHES.add(this);
+        pump();
+        return this;
+    }
+
+    /**
+     * @return future completed when all pictures were fetched (or failed), cancelled when the batch is
+     */
+    public CompletableFuture<Void> future() {
+        return future;
+    }
+
+    /**
+     * @return pictures not fetched yet
+     */
+    public int getRemaining() {
+        return remaining.get();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops the batch, queued pictures are dropped and running downloads are aborted.
+     * Decoded caches nobody used yet are released
+     */
+    public void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        future.cancel(false); // BEFORE THE COUNT REACHES ZERO, OR IT COMPLETES INSTEAD
+        BATCHES.remove(this);
+        int dropped = 0;
+        while (pending.poll() != null) dropped++;
+        remaining.addAndGet(-dropped);
+        for (Map.Entry<URI, Object> entry: running.entrySet()) {
+            Object handle = entry.getValue();
+            if (handle instanceof ImageFetch) {
+                ((ImageFetch) handle).abort();
+            } else {
+                ((ImageCache) handle).tryRelease();
+            }
+            finish(entry.getKey(), handle);
+        }
+        pump();
+    }
+
+    private void fetch(URI uri) {
+        if (renderThreadEx != null) {
+            // DECODED INTO AN UNUSED CACHE, THE LRU DROPS IT IF NOBODY ASKS FOR IT
+            ImageCache cache = new ImageCache(uri, renderThreadEx, priority, 0);
+            if (ImageCache.CACHE.putIfAbsent(uri, cache) != null) {
+                done();
+                return;
+            }
+            running.put(uri, cache);
+            cache.load(() -> finish(uri, cache));
+        } else {
+            ImageFetch fetch = new ImageFetch(uri).setPriority(priority).setDecode(false);
+            running.put(uri, fetch);
+            fetch.setSuccessCallback((renderer, cache) -> finish(uri, fetch))
+                    .setErrorCallback((e, isVideo) -> finish(uri, fetch))
+                    .start();
+        }
+    }
+
+    private void finish(URI uri, Object handle) {
+        if (running.remove(uri, handle)) done();
+    }
+
+    private void done() {
+        RUNNING.decrementAndGet();
+        if (remaining.decrementAndGet() == 0) future.complete(null);
+        pump();
+    }
+
+    /**
+     * Starts the next pictures of the batches while there is a free slot.
+     * Fetches finishing right away pumps again, that is collapsed into the running pump instead of recursing
+     */
+    private static void pump() {
+        if (PUMPS.getAndIncrement() != 0) return;
+        int missed = 1;
+        do {
+            pump$drain();
+            missed = PUMPS.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static void pump$drain() {
+        while (true) {
+            int running = RUNNING.get();
+            if (running >= SLOTS) return;
+            ImagePrefetch batch = BATCHES.peek();
+            if (batch == null) return;
+            if (!RUNNING.compareAndSet(running, running + 1)) continue;
+
+            URI uri = batch.cancelled ? null : batch.pending.poll();
+            if (uri == null) { // NOTHING LEFT TO START
+                RUNNING.decrementAndGet();
+                BATCHES.remove(batch);
+                continue;
+            }
+            batch.fetch(uri);
+        }
+    }
+}
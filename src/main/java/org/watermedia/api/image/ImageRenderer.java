@@ -2,21 +2,58 @@ package org.watermedia.api.image;
 
 import org.lwjgl.opengl.GL12;
 import org.watermedia.api.image.decoders.GifDecoder;
+import org.watermedia.api.image.decoders.PalettedGif;
+import org.watermedia.api.cache.CacheAPI;
 import org.watermedia.api.math.MathAPI;
 import org.watermedia.api.render.RenderAPI;
+import org.watermedia.core.tools.ArgTool;
 import org.watermedia.core.tools.DataTool;
+import org.watermedia.core.tools.IOTool;
 
 import java.awt.image.BufferedImage;
+import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.watermedia.WaterMedia.LOGGER;
+
+public class ImageRenderer implements RenderAPI.TextureHolder {
+    public static final ArgTool DELTA_FRAMES = new ArgTool("watermedia.image.deltaFrames");
+    private static final boolean DELTA = !"false".equalsIgnoreCase(DELTA_FRAMES.value()); // PALETTED GIFS UPDATES A SINGLE TEXTURE
+    private static final int FRAME_BYTES = 64; // BUFFER, TEXTURE AND DELAY SLOTS OF EACH FRAME
 
-public class ImageRenderer {
     public final int width;
     public final int height;
-    public final int[] textures;
-    public final long[] delay;
-    public final long duration;
+    /** @deprecated progressive renderers only have the first frame here, use {@link #texture(int)} and {@link #getFrameCount()} */
+    @Deprecated public final int[] textures;
+    /** @deprecated progressive renderers only have the first frame here, use {@link #getDelay()} */
+    @Deprecated public final long[] delay;
+    /** @deprecated progressive renderers only have the first frame here, use {@link #getDuration()} */
+    @Deprecated public final long duration;
+    // GROWS WHILE FRAMES ARE APPENDED, ARRAYS ARE REPLACED (NEVER RESIZED) UNDER THE LOCK
+    private volatile int[] textureIds;
+    private volatile long[] delays;
+    private volatile long totalDuration;
     private ByteBuffer[] images;
+    private boolean owned = true;
+    private volatile boolean complete = true;
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private PalettedGif paletted; // FRAMES EXPANDED RIGHT BEFORE THE UPLOAD
+    private ByteBuffer scratch;
+    private boolean delta; // ONE TEXTURE, ONLY CHANGED REGIONS ARE UPLOADED
+    private int expanded = -1; // FRAME ON THE SCRATCH BUFFER OF DELTA RENDERERS
+    private final int[] pending = new int[4]; // REGION OF THE SCRATCH BUFFER NOT UPLOADED YET
+    private URI source; // DECODED PIXELS ON DISK, FLUSHED FRAMES ARE UPLOADED AGAIN FROM THERE
+    private ByteBuffer mapping; // MAPPED FILE BEHIND THE FRAMES OR THE LAZY GIF, UNMAPPED ON FLUSH
+    private ByteBuffer[] pinned; // FRAMES BEING WRITTEN TO DISK, FLUSH LEAVES FREEING THEM TO UNPIN
+    private boolean pinnedFree;
+    private boolean evicted; // TEXTURES WERE DELETED BY THE VRAM BUDGET
+    private boolean restoring; // PIXELS ARE BEING MAPPED ON THE CACHE WORKER
+    private final List<Runnable> lostListeners = new CopyOnWriteArrayList<>();
+    private volatile long drawn;
 
     public boolean flushed;
     public int remaining;
@@ -31,10 +68,13 @@ public class ImageRenderer {
         this.images = new ByteBuffer[] { RenderAPI.getImageBuffer(image) };
         this.width = image.getWidth();
         this.height = image.getHeight();
-        this.textures = new int[] { -1 };
-        this.delay = new long[1];
-        this.duration = 1;
+        this.textureIds = new int[] { -1 };
+        this.delays = new long[1];
+        this.totalDuration = 1;
         this.remaining = this.images.length;
+        this.textures = this.textureIds;
+        this.delay = this.delays;
+        this.duration = this.totalDuration;
     }
 
     /**
@@ -45,16 +85,19 @@ public class ImageRenderer {
     ImageRenderer(BufferedImage[] images, long[] delay) {
         if (images == null) throw new NullPointerException();
         this.images = new ByteBuffer[images.length];
-        this.textures = new int[images.length];
-        this.delay = delay;
+        this.textureIds = new int[images.length];
+        this.delays = delay;
         for (int i = 0; i < images.length; i++) {
             this.images[i] = RenderAPI.getImageBuffer(images[i]);
-            this.textures[i] = -1;
+            this.textureIds[i] = -1;
         }
-        this.duration = DataTool.sumArr(delay);
+        this.totalDuration = DataTool.sumArr(delay);
         this.width = images[0].getWidth();
         this.height = images[0].getHeight();
         this.remaining = this.images.length;
+        this.textures = this.textureIds;
+        this.delay = this.delays;
+        this.duration = this.totalDuration;
     }
 
     /**
@@ -64,14 +107,206 @@ public class ImageRenderer {
      */
     ImageRenderer(GifDecoder decoder) {
         if (decoder == null) throw new NullPointerException();
-        this.images = RenderAPI.getImageBuffer(decoder.getFrames());
+        if (decoder.isPaletted()) {
+            this.paletted = decoder.getPalettedGif();
+            this.delta = DELTA;
+            this.images = new ByteBuffer[decoder.getFrameCount()];
+        } else {
+            this.images = RenderAPI.getImageBuffer(decoder.getFrames());
+        }
         this.width = decoder.getWidth();
         this.height = decoder.getHeight();
-        this.textures = new int[decoder.getFrameCount()];
-        this.delay = decoder.getDelayFrames();
-        this.duration = decoder.getDuration();
+        this.textureIds = new int[decoder.getFrameCount()];
+        this.delays = decoder.getDelayFrames();
+        this.totalDuration = decoder.getDuration();
+        this.remaining = this.images.length;
+        Arrays.fill(textureIds, -1);
+        this.textures = this.textureIds;
+        this.delay = this.delays;
+        this.duration = this.totalDuration;
+    }
+
+    /**
+     * creates a new instance of an ImageRenderer using already decoded BGRA buffers
+     * buffers are not owned by the renderer, flush just drops the references
+     * @param images BGRA buffers of each frame
+     * @param width frames width
+     * @param height frames height
+     * @param delay delay of each frame
+     */
+    ImageRenderer(ByteBuffer[] images, int width, int height, long[] delay) {
+        if (images == null) throw new NullPointerException();
+        this.images = images;
+        this.width = width;
+        this.height = height;
+        this.textureIds = new int[images.length];
+        this.delays = delay;
+        this.totalDuration = DataTool.sumArr(delay);
         this.remaining = this.images.length;
-        Arrays.fill(textures, -1);
+        this.owned = false;
+        Arrays.fill(textureIds, -1);
+        this.textures = this.textureIds;
+        this.delay = this.delays;
+        this.duration = this.totalDuration;
+    }
+
+    /**
+     * creates a new instance of an ImageRenderer with only the first frame, the rest of the frames
+     * are appended while they are decoded, see {@link #append(ByteBuffer, long)} and {@link #complete()}
+     * @param frame BGRA buffer of the first frame
+     * @param width frames width
+     * @param height frames height
+     * @param delay delay of the first frame
+     */
+    ImageRenderer(ByteBuffer frame, int width, int height, long delay) {
+        if (frame == null) throw new NullPointerException();
+        this.images = new ByteBuffer[] { frame };
+        this.width = width;
+        this.height = height;
+        this.textureIds = new int[] { -1 };
+        this.delays = new long[] { delay };
+        this.totalDuration = delay;
+        this.remaining = 1;
+        this.complete = false;
+        this.textures = this.textureIds;
+        this.delay = this.delays;
+        this.duration = this.totalDuration;
+    }
+
+    /**
+     * creates a new instance of an ImageRenderer with only the first frame of a paletted gif, the rest of the frames
+     * are appended while they are decoded, see {@link #append(ByteBuffer, long)} and {@link #complete()}
+     * @param gif paletted frames, must contain the first frame
+     */
+    ImageRenderer(PalettedGif gif) {
+        if (gif == null) throw new NullPointerException();
+        this.paletted = gif;
+        this.delta = DELTA;
+        this.images = new ByteBuffer[1];
+        this.width = gif.width;
+        this.height = gif.height;
+        this.textureIds = new int[] { -1 };
+        this.delays = new long[] { gif.getDelays()[0] };
+        this.totalDuration = this.delays[0];
+        this.remaining = 1;
+        this.complete = false;
+        this.textures = this.textureIds;
+        this.delay = this.delays;
+        this.duration = this.totalDuration;
+    }
+
+    /**
+     * Adds a decoded frame at the end of an incomplete renderer
+     * @param frame BGRA buffer of the frame, the renderer owns it after this call. Null on paletted renderers
+     * @param delay delay of the frame
+     * @return false if the renderer was already released and the frame was discarded
+     */
+    synchronized boolean append(ByteBuffer frame, long delay) {
+        if (refs.get() <= 0) { // NOBODY IS WATCHING
+            if (frame != null) RenderAPI.freeByteBuffer(frame);
+            return false;
+        }
+        if (complete) throw new IllegalStateException("Renderer is already complete");
+        if ((frame == null) != (paletted != null)) throw new IllegalArgumentException("Frame does not match the renderer storage");
+
+        int count = this.images.length;
+        ByteBuffer[] images = Arrays.copyOf(this.images, count + 1);
+        int[] textures = Arrays.copyOf(this.textureIds, count + 1);
+        long[] delays = Arrays.copyOf(this.delays, count + 1);
+        images[count] = frame;
+        textures[count] = -1;
+        delays[count] = delay;
+
+        this.images = images;
+        this.textureIds = textures;
+        this.delays = delays;
+        this.totalDuration += delay;
+        this.remaining++;
+        return true;
+    }
+
+    /**
+     * Marks the renderer as complete, no more frames will be appended
+     */
+    synchronized void complete() {
+        this.complete = true;
+    }
+
+    /**
+     * Incomplete renderers are still decoding frames, meanwhile animation is clamped to the decoded frames
+     * @return true if all frames are available
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return delay of each frame, it grows while frames are appended. Do not modify it
+     */
+    public long[] getDelay() {
+        return delays;
+    }
+
+    /**
+     * @return sum of the delay of all frames, it grows while frames are appended
+     */
+    public long getDuration() {
+        return totalDuration;
+    }
+
+    /**
+     * @return frames available to draw, it grows while frames are appended
+     */
+    public int getFrameCount() {
+        return textureIds.length;
+    }
+
+    /**
+     * Paletted renderers keeps GIF frames as index planes and expands them when they are uploaded
+     * @return true if frames are stored paletted
+     */
+    synchronized boolean isPaletted() {
+        return paletted != null;
+    }
+
+    /**
+     * Lazy renderers decodes their GIF frames from the source buffer while they are drawn
+     * @return true if the source buffer must be kept, see {@link #setMapping(ByteBuffer)}
+     */
+    synchronized boolean isLazy() {
+        return paletted != null && paletted.isLazy();
+    }
+
+    /**
+     * Gives the renderer the mapped file its frames are read from, it is unmapped when the frames are flushed
+     * @param mapping whole mapped file
+     */
+    synchronized void setMapping(ByteBuffer mapping) {
+        if (flushed) {
+            IOTool.unmap(mapping);
+            return;
+        }
+        this.mapping = mapping;
+    }
+
+    /**
+     * Direct access to the BGRA buffers, they are not freed until {@link #unpin()} even if the renderer gets flushed,
+     * so they can be read without holding the renderer lock
+     * @return buffers of each frame, null if the renderer was flushed or keeps its frames paletted
+     */
+    synchronized ByteBuffer[] pin() {
+        if (flushed || paletted != null || pinned != null) return null;
+        return pinned = images;
+    }
+
+    synchronized void unpin() {
+        ByteBuffer[] buffers = this.pinned;
+        this.pinned = null;
+        if (buffers == null || !pinnedFree) return;
+        pinnedFree = false;
+        for (ByteBuffer buffer: buffers) {
+            if (buffer != null) RenderAPI.freeByteBuffer(buffer);
+        }
     }
 
     /**
@@ -81,10 +316,11 @@ public class ImageRenderer {
      * @return texture id usable on OpenGL
      * @see ImageRenderer#texture(int, long, boolean) too
      */
-    public int texture(long time) {
-        if (textures == null) return 0;
-        if (textures.length == 1) return texture(0);
+    public synchronized int texture(long time) {
+        if (textureIds == null) return 0;
+        if (textureIds.length == 1) return texture(0);
 
+        long[] delay = this.delays;
         for (int i = 0; i < delay.length; i++) {
             time -= delay[i];
             if (time <= 0)
@@ -98,16 +334,186 @@ public class ImageRenderer {
      * @param index image index
      * @return texture id usable on OpenGL
      */
-    public int texture(int index) {
-        if (this.textures[index] == -1) {
-            this.textures[index] = RenderAPI.createTexture();
-            RenderAPI.uploadBuffer(this.images[index], this.textures[index], GL12.GL_BGRA, width, height, true);
-            this.remaining -= 1;
-            if (this.remaining == 0) {
-                this.flush();
+    public synchronized int texture(int index) {
+        if (!complete && index >= this.textureIds.length) index = this.textureIds.length - 1; // NOT DECODED YET
+        this.drawn = RenderAPI.drawStamp();
+        if (delta) return this.texture$delta(index);
+        if (this.textureIds[index] == -1) {
+            if (flushed) { // EVICTED, NOTHING TO SHOW UNTIL THE PIXELS ARE MAPPED AGAIN
+                this.restore();
+                return 0;
             }
+            final int frame = index;
+            if (!RenderAPI.scheduleUpload(this.frameSize(), () -> this.upload(frame))) return this.uploaded(index);
+        }
+        if (this.remaining == 0 && complete && !flushed) {
+            this.flush();
         }
-        return textures[index];
+        return textureIds[index];
+    }
+
+    private void upload(int index) {
+        this.textureIds[index] = RenderAPI.createTexture();
+        ByteBuffer image = this.images[index];
+        if (image == null && paletted != null) {
+            if (scratch == null) scratch = RenderAPI.createByteBuffer(width * height * 4);
+            paletted.expand(index, scratch);
+            image = scratch;
+        }
+        RenderAPI.uploadBuffer(image, this.textureIds[index], GL12.GL_BGRA, width, height, true);
+        RenderAPI.trackTexture(this.textureIds[index], this.frameSize(), this);
+        this.remaining -= 1;
+    }
+
+    /**
+     * Upload was postponed, the closest previous frame already uploaded is shown meanwhile
+     * @return texture id, 0 if nothing was uploaded yet
+     */
+    private int uploaded(int index) {
+        int[] textures = this.textureIds;
+        for (int i = 0; i < textures.length; i++) {
+            int texture = textures[(index - i + textures.length) % textures.length];
+            if (texture != -1) return texture;
+        }
+        return 0;
+    }
+
+    /**
+     * Delta renderers keeps the current frame in the first texture and updates only
+     * the region that changed since the uploaded frame. When the upload is postponed the texture
+     * keeps showing an older frame, and the region to upload grows until the scheduler lets it go
+     */
+    private int texture$delta(int index) {
+        if (scratch == null) {
+            scratch = RenderAPI.createByteBuffer(width * height * 4);
+            this.expanded = -1;
+        }
+        if (index != expanded) {
+            this.pending(paletted.expand(index, expanded, scratch));
+            this.expanded = index;
+        }
+        if (this.textureIds[0] == -1) {
+            if (!RenderAPI.scheduleUpload(this.frameSize(), this::upload$delta)) return 0;
+        } else if (pending[2] > 0 && pending[3] > 0) {
+            RenderAPI.scheduleUpload((long) pending[2] * pending[3] * 4, this::upload$delta);
+        }
+        return this.textureIds[0];
+    }
+
+    private void pending(int[] region) {
+        if (region[2] <= 0 || region[3] <= 0) return;
+        if (pending[2] <= 0 || pending[3] <= 0) {
+            System.arraycopy(region, 0, pending, 0, 4);
+            return;
+        }
+        int x0 = Math.min(pending[0], region[0]), y0 = Math.min(pending[1], region[1]);
+        int x1 = Math.max(pending[0] + pending[2], region[0] + region[2]), y1 = Math.max(pending[1] + pending[3], region[1] + region[3]);
+        pending[0] = x0;
+        pending[1] = y0;
+        pending[2] = x1 - x0;
+        pending[3] = y1 - y0;
+    }
+
+    /**
+     * Maps the decoded pixels again on the cache worker after the textures of a flushed renderer were evicted,
+     * the frames are uploaded on the next draws
+     */
+    private void restore() {
+        if (source == null || restoring) return; // ALREADY FAILED (NOT RETRIED ON EACH DRAW) OR ON IT
+        this.restoring = true;
+        CacheAPI.loadPixels(source, this::restored);
+    }
+
+    private void restored(CacheAPI.Pixels pixels) {
+        boolean lost;
+        synchronized (this) {
+            this.restoring = false;
+            lost = !this.restore(pixels);
+        }
+        if (lost) lostListeners.forEach(Runnable::run); // OUTSIDE THE LOCK, LISTENERS TAKES THEIR OWN
+    }
+
+    /**
+     * Uses the mapped pixels as the frames of a flushed renderer with evicted textures
+     * @param pixels mapped pixels, unmapped when they are not used
+     * @return false if the pixels are gone, the frames can't be drawn anymore
+     */
+    private boolean restore(CacheAPI.Pixels pixels) {
+        if (refs.get() <= 0 || !flushed || !evicted) { // RELEASED OR ALREADY RESTORED MEANWHILE
+            if (pixels != null) IOTool.unmap(pixels.mapping);
+            return true;
+        }
+        if (pixels == null || pixels.width != width || pixels.height != height || pixels.frames.length != images.length) {
+            if (pixels != null) IOTool.unmap(pixels.mapping);
+            LOGGER.warn(ImageAPI.IT, "Cannot upload again the evicted textures of '{}', decoded pixels are gone", source);
+            this.source = null;
+            return false;
+        }
+        this.images = pixels.frames;
+        this.mapping = pixels.mapping;
+        this.owned = false;
+        this.flushed = false;
+        this.evicted = false;
+        return true;
+    }
+
+    /**
+     * Bytes of a single texture, BGRA without mipmaps
+     */
+    private long frameSize() {
+        return (long) width * height * 4;
+    }
+
+    /**
+     * Sets where the decoded pixels of this renderer are stored on disk,
+     * textures evicted after the CPU buffers were flushed are uploaded again from there
+     * @param uri cache entry with the decoded pixels
+     */
+    synchronized void setSource(URI uri) {
+        this.source = uri;
+    }
+
+    /**
+     * Listener is notified when the textures were evicted and can't be uploaded again, the renderer only draws blanks
+     * from there and must be replaced. Called on the cache worker
+     * @param listener called when the renderer is lost
+     */
+    void addLostCallback(Runnable listener) {
+        this.lostListeners.add(listener);
+    }
+
+    @Override
+    public long lastDrawn() {
+        return drawn;
+    }
+
+    /**
+     * Deletes the textures when they can be uploaded again, from the CPU buffers, the paletted frames or the decoded pixels on disk
+     * @return freed bytes of VRAM
+     */
+    @Override
+    public synchronized long evictTextures() {
+        if (refs.get() <= 0) return 0;
+        if (flushed && (source == null || !CacheAPI.hasPixels(source))) return 0; // NOWHERE TO UPLOAD THEM FROM
+        int[] uploaded = DataTool.filterValue(this.textureIds, -1);
+        if (uploaded.length == 0) return 0;
+
+        RenderAPI.deleteTexture(uploaded);
+        Arrays.fill(this.textureIds, -1); // DELTA RENDERERS UPLOADS THE WHOLE SCRATCH BUFFER AGAIN
+        this.remaining = this.images.length;
+        if (flushed) this.evicted = true;
+        return uploaded.length * this.frameSize();
+    }
+
+    private void upload$delta() {
+        if (this.textureIds[0] == -1) {
+            this.textureIds[0] = RenderAPI.createTexture();
+            RenderAPI.uploadBuffer(scratch, this.textureIds[0], GL12.GL_BGRA, width, height, true);
+            RenderAPI.trackTexture(this.textureIds[0], this.frameSize(), this);
+        } else {
+            RenderAPI.uploadSubBuffer(scratch, this.textureIds[0], GL12.GL_BGRA, width, pending[0], pending[1], pending[2], pending[3]);
+        }
+        Arrays.fill(pending, 0);
     }
 
     /**
@@ -120,7 +526,8 @@ public class ImageRenderer {
      */
     public int texture(int tick, long deltaTime, boolean loop) {
         long time = (tick * 50L) + deltaTime;
-        if (duration > 0 && time > duration && loop) time %= duration;
+        long duration = this.totalDuration;
+        if (duration > 0 && time > duration && loop && complete) time %= duration;
         return texture(time);
     }
 
@@ -140,28 +547,113 @@ public class ImageRenderer {
         return flushed;
     }
 
+    /**
+     * Off-heap memory held by the renderer, frames not uploaded yet, paletted data and the expand buffer.
+     * Buffers not owned by the renderer are mapped from the disk and are not counted
+     * @return size in bytes
+     */
+    public synchronized long getMemorySize() {
+        long size = (long) images.length * FRAME_BYTES;
+        if (owned) {
+            for (ByteBuffer buffer: images) {
+                if (buffer != null) size += buffer.capacity();
+            }
+        }
+        if (paletted != null) size += paletted.getByteSize();
+        if (scratch != null) size += scratch.capacity();
+        return size;
+    }
+
+    /**
+     * VRAM used by the uploaded textures, estimated as BGRA without mipmaps
+     * @return size in bytes
+     */
+    public synchronized long getTextureSize() {
+        long size = 0;
+        for (int texture: textureIds) {
+            if (texture != -1) size += (long) width * height * 4;
+        }
+        return size;
+    }
+
+    /**
+     * Drops the CPU copy of the frames when all of them are already uploaded, textures are kept.
+     * Renderers still decoding or compositing frames (delta) are not touched
+     * @return freed bytes
+     */
+    synchronized long trim() {
+        if (flushed || !complete || remaining > 0 || delta) return 0;
+        long size = this.getMemorySize() - (long) images.length * FRAME_BYTES;
+        this.flush();
+        return size;
+    }
+
+    /**
+     * Adds a holder to this renderer, each holder must call {@link #release()} once,
+     * textures are deleted when the last holder releases it
+     * @return self, or null when the renderer was already released
+     */
+    public ImageRenderer share() {
+        int refs;
+        do {
+            refs = this.refs.get();
+            if (refs <= 0) return null;
+        } while (!this.refs.compareAndSet(refs, refs + 1));
+        return this;
+    }
+
+    /**
+     * @return true if more than one holder uses this renderer
+     */
+    public boolean isShared() {
+        return refs.get() > 1;
+    }
+
     /**
      * This method just drains buffers but not releases OpenGL texture
      */
-    protected void flush() {
+    protected synchronized void flush() {
         if (flushed) throw new IllegalStateException("Buffers are already flushed");
-        for (ByteBuffer buffer: this.images) {
-            RenderAPI.freeByteBuffer(buffer);
+        if (!complete) return; // FRAMES ARE STILL COMING
+        if (delta && refs.get() > 0) return; // FRAMES ARE COMPOSITED FROM THE PALETTED DATA ON EACH CHANGE
+        if (owned && pinned == this.images) {
+            pinnedFree = true;
+        } else if (owned) {
+            for (ByteBuffer buffer: this.images) {
+                if (buffer != null) RenderAPI.freeByteBuffer(buffer);
+            }
+        }
+        if (mapping != null) { // NOTHING READS THE FILE ANYMORE
+            IOTool.unmap(mapping);
+            mapping = null;
         }
+        if (scratch != null) {
+            RenderAPI.freeByteBuffer(scratch);
+            scratch = null;
+        }
+        this.paletted = null;
+        this.expanded = -1;
+        Arrays.fill(this.pending, 0);
         this.images = new ByteBuffer[this.images.length];
         this.flushed = true;
     }
 
     /**
-     * Moves the image data to RAM (from VRAM) and resets the state of the ImageRender as never requested
+     * Moves the image data to RAM (from VRAM) and resets the state of the ImageRender as never requested.
+     * Evicted textures are restored from the decoded pixels in the background, draws are blank meanwhile
      */
-    public void reset() {
+    public synchronized void reset() {
         if (!flushed) throw new IllegalStateException("Buffers are not flushed");
+        if (evicted) { // NOTHING ON VRAM, THE PIXELS ARE MAPPED AGAIN ON THE CACHE WORKER
+            this.restore();
+            return;
+        }
         this.remaining = this.images.length;
+        this.owned = true; // DOWNLOADED BUFFERS ARE OURS
         for (int i = 0; i < this.images.length; i++) {
-            this.images[i] = RenderAPI.downloadBuffer(this.textures[i], width, height);
-            RenderAPI.deleteTexture(this.textures);
-            Arrays.fill(this.textures, -1);
+            this.images[i] = RenderAPI.downloadBuffer(this.textureIds[i], width, height);
+            RenderAPI.deleteTexture(this.textureIds);
+            Arrays.fill(this.textureIds, -1);
         }
         this.flushed = false;
     }
@@ -169,14 +661,16 @@ public class ImageRenderer {
     /**
      * This method drain buffers and release OpenGL textures
      */
-    public void release() {
+    public synchronized void release() {
+        if (refs.decrementAndGet() > 0) return; // OTHER HOLDERS STILL USE IT
+        this.complete = true; // NO MORE FRAMES ARE ACCEPTED
         if (flushed) {
-            RenderAPI.deleteTexture(this.textures);
-            Arrays.fill(this.textures, -1);
+            RenderAPI.deleteTexture(DataTool.filterValue(this.textureIds, -1)); // EVICTED TEXTURES ARE ALREADY GONE
+            Arrays.fill(this.textureIds, -1);
         } else {
             this.flush();
-            RenderAPI.deleteTexture(DataTool.filterValue(this.textures, -1));
-            Arrays.fill(this.textures, -1);
+            RenderAPI.deleteTexture(DataTool.filterValue(this.textureIds, -1));
+            Arrays.fill(this.textureIds, -1);
         }
     }
 
@@ -194,6 +688,10 @@ public class ImageRenderer {
             super(decoder);
         }
 
+        Absolute(ByteBuffer[] images, int width, int height, long[] delay) {
+            super(images, width, height, delay);
+        }
+
         @Override public void release() {}
     }
 }
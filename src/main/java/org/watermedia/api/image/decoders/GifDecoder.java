@@ -5,7 +5,10 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /** Class GifDecoder - Decodes a GIF file into one or more frames.
  * Example:
@@ -41,7 +44,10 @@ public class GifDecoder {
     /** File read status: Unable to open source. */
     public static final int STATUS_OPEN_ERROR = 2;
     
-    protected BufferedInputStream in;
+    /** File read status: Picture is bigger than the pixel limit, nothing was decoded */
+    public static final int STATUS_TOO_LARGE = 3;
+    
+    protected InputStream in;
     protected int status;
     
     protected int width; // full image width
@@ -67,8 +73,11 @@ public class GifDecoder {
     protected Rectangle lastRect; // last image rect
     protected BufferedImage image; // current frame
     protected BufferedImage lastImage; // previous frame
+    protected BufferedImage beforeLastImage; // frame before the previous one
     
     protected byte[] block = new byte[256]; // current data block
+    protected byte[] colorBytes = new byte[768]; // color table being read
+    protected ByteBuffer data; // read cursor when reading from a buffer, faster than the stream
     protected int blockSize = 0; // block size
     
     // last graphic control extension info
@@ -80,6 +89,7 @@ public class GifDecoder {
     protected int transIndex; // transparent color index
     
     protected static final int MaxStackSize = 4096;
+    protected static final byte[] NETSCAPE = { 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0' };
     // max decoder pixel stack size
     
     // LZW decoder working arrays
@@ -91,7 +101,86 @@ public class GifDecoder {
     protected ArrayList<GifFrame> frames; // frames read from current file
     protected int frameCount;
     protected long duration = 0;
+    protected FrameListener listener; // notified of each frame as soon as it is decoded
+    protected boolean paletted; // keep index planes instead of BufferedImages
+    protected PalettedGif palettedGif; // frames read in paletted mode
+    protected int[] lastPalette; // palette of the previous paletted frame
+    protected boolean lazy; // index frames and decode them when they are requested
+    protected int maxDimension; // frames bigger than this are downscaled, 0 keeps them as they are
+    protected int scale = 1; // box filter size applied to frames
+    protected long maxPixels; // pictures with more pixels are refused before allocating anything, 0 is unlimited
+
+    /** Receives each frame as soon as it is decoded, useful to show the first frames
+     * while the rest of the file is still being read */
+    public interface FrameListener {
+        void onFrame(int index, BufferedImage frame, int delay);
+    }
+
+    /** Sets the listener of decoded frames
+     *
+     * @param listener listener, or null to remove it
+     * @return self */
+    public GifDecoder setFrameListener(FrameListener listener) {
+        this.listener = listener;
+        return this;
+    }
     
+    /** Keeps frames as 8-bit index planes plus their palette instead of 32-bit images,
+     * frames are available using {@link #getPalettedGif()} and {@link #getFrame(int)} returns null
+     *
+     * @param paletted true to store frames paletted
+     * @return self */
+    public GifDecoder setPaletted(boolean paletted) {
+        this.paletted = paletted;
+        return this;
+    }
+
+    public boolean isPaletted() {
+        return paletted;
+    }
+
+    /** Long animations are only indexed, frames are decoded when they are composited
+     * keeping only a small window of them. Only applies to paletted mode reading from a {@link ByteBuffer},
+     * which must be kept untouched while the frames are used
+     *
+     * @param lazy true to decode frames lazily
+     * @return self */
+    public GifDecoder setLazy(boolean lazy) {
+        this.lazy = lazy;
+        return this;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /** Downscales frames bigger than the given size using a box filter, frames are still
+     * composited at full size but only the downscaled frames are kept
+     *
+     * @param maxDimension max width or height of the frames, 0 to keep the original size
+     * @return self */
+    public GifDecoder setMaxDimension(int maxDimension) {
+        this.maxDimension = Math.max(0, maxDimension);
+        return this;
+    }
+
+    /** Refuses pictures with more pixels than the given limit, reading stops right after the header
+     * with {@link #STATUS_TOO_LARGE} before any frame is allocated
+     *
+     * @param maxPixels max width * height of the picture, 0 for no limit
+     * @return self */
+    public GifDecoder setMaxPixels(long maxPixels) {
+        this.maxPixels = Math.max(0, maxPixels);
+        return this;
+    }
+
+    /** Gets the frames read in paletted mode
+     *
+     * @return paletted frames, or null if paletted mode is disabled or nothing was read */
+    public PalettedGif getPalettedGif() {
+        return palettedGif;
+    }
+
     static class GifFrame {
         public GifFrame(BufferedImage im, int del) {
             image = im;
@@ -145,34 +234,28 @@ public class GifDecoder {
         
         // fill in starting image contents based on last image's dispose code
         if (lastDispose > 0) {
+            BufferedImage base = lastImage;
             if (lastDispose == 3) {
                 // use image before last
-                int n = frameCount - 2;
-                if (n > 0) {
-                    lastImage = getFrame(n - 1);
-                } else {
-                    lastImage = null;
-                }
+                base = frameCount > 2 ? beforeLastImage : null;
             }
             
-            if (lastImage != null) {
-                int[] prev = ((DataBufferInt) lastImage.getRaster().getDataBuffer()).getData();
+            if (base != null) {
+                int[] prev = ((DataBufferInt) base.getRaster().getDataBuffer()).getData();
                 System.arraycopy(prev, 0, dest, 0, width * height);
                 // copy pixels
                 
                 if (lastDispose == 2) {
                     // fill last image rect area with background color
-                    Graphics2D g = image.createGraphics();
-                    Color c = null;
-                    if (transparency) {
-                        c = new Color(0, 0, 0, 0); // assume background is transparent
-                    } else {
-                        c = new Color(lastBgColor); // use given background color
+                    int c = transparency ? 0 : 0xff000000 | lastBgColor; // assume background is transparent
+                    int x0 = Math.max(0, lastRect.x);
+                    int x1 = Math.min(width, lastRect.x + lastRect.width);
+                    int y1 = Math.min(height, lastRect.y + lastRect.height);
+                    if (x0 < x1) {
+                        for (int y = Math.max(0, lastRect.y); y < y1; y++) {
+                            Arrays.fill(dest, y * width + x0, y * width + x1, c);
+                        }
                     }
-                    g.setColor(c);
-                    g.setComposite(AlphaComposite.Src); // replace area
-                    g.fill(lastRect);
-                    g.dispose();
                 }
             }
         }
@@ -184,7 +267,7 @@ public class GifDecoder {
         for (int i = 0; i < ih; i++) {
             int line = i;
             if (interlace) {
-                if (iline >= ih) {
+                while (iline >= ih && pass < 4) { // short frames have empty passes
                     pass++;
                     switch (pass) {
                         case 2:
@@ -224,6 +307,136 @@ public class GifDecoder {
         }
     }
     
+    /** Stores the index data of the current frame with its palette and
+     * the disposition codes needed to composite it, same as {@link #setPixels()}
+     *
+     * @param offset where the image data starts on indexed frames, -1 to keep the decoded pixels */
+    protected void setIndices(int offset) {
+        if (palettedGif == null) {
+            palettedGif = new PalettedGif(width, height, scale);
+        }
+        
+        // indexed frames are decoded later
+        byte[] indices = null;
+        if (offset < 0) {
+            indices = new byte[iw * ih];
+            deinterlace(indices);
+        }
+        
+        // frames usually share the same table
+        int[] palette = (lastPalette != null && Arrays.equals(lastPalette, act)) ? lastPalette : act.clone();
+        lastPalette = palette;
+        
+        // starting contents based on last frame's dispose code
+        int base = PalettedGif.BASE_BLANK;
+        int[] clear = null;
+        int clearColor = 0;
+        if (lastDispose == 3) {
+            base = PalettedGif.BASE_BEFORE_PREVIOUS;
+        } else if (lastDispose > 0) {
+            base = PalettedGif.BASE_PREVIOUS;
+            if (lastDispose == 2 && lastRect != null) {
+                clear = new int[] { lastRect.x, lastRect.y, lastRect.width, lastRect.height };
+                clearColor = transparency ? 0 : 0xff000000 | lastBgColor;
+            }
+        }
+        
+        palettedGif.add(new PalettedGif.Frame(ix, iy, iw, ih, interlace, indices, offset, palette, base, clear, clearColor, delay));
+    }
+    
+    /** Copies the decoded pixels rows into their place when the frame is interlaced */
+    protected void deinterlace(byte[] indices) {
+        if (interlace) {
+            int pass = 1;
+            int inc = 8;
+            int iline = 0;
+            for (int i = 0; i < ih; i++) {
+                while (iline >= ih && pass < 4) { // short frames have empty passes
+                    pass++;
+                    switch (pass) {
+                        case 2:
+                            iline = 4;
+                            break;
+                        case 3:
+                            iline = 2;
+                            inc = 4;
+                            break;
+                        case 4:
+                            iline = 1;
+                            inc = 2;
+                    }
+                }
+                if (iline < ih) {
+                    System.arraycopy(pixels, i * iw, indices, iline * iw, iw);
+                }
+                iline += inc;
+            }
+        } else {
+            System.arraycopy(pixels, 0, indices, 0, iw * ih);
+        }
+    }
+    
+    /** Decodes the image data of an indexed frame
+     *
+     * @param source buffer the GIF was read from
+     * @param offset where the frame image data starts
+     * @param w frame width
+     * @param h frame height
+     * @param interlaced frame interlace flag
+     * @param dest array to reuse, can be null
+     * @return deinterlaced index rows of the frame */
+    protected byte[] decodeIndices(ByteBuffer source, int offset, int w, int h, boolean interlaced, byte[] dest) {
+        int readStatus = status; // keep the status of the file read
+        ByteBuffer data = source.duplicate();
+        data.position(offset);
+        this.data = data;
+        status = STATUS_OK;
+        iw = w;
+        ih = h;
+        interlace = interlaced;
+        decodeImageData();
+        if (dest == null || dest.length < w * h) {
+            dest = new byte[w * h];
+        }
+        deinterlace(dest);
+        this.data = null;
+        status = readStatus;
+        return dest;
+    }
+    
+    /** Box filter downscale of ARGB pixels, alpha weighted so transparent pixels does not darken the edges
+     *
+     * @param src source pixels
+     * @param width source width
+     * @param height source height
+     * @param scale filter size, each output pixel averages up to scale x scale source pixels
+     * @param ox output region x
+     * @param oy output region y
+     * @param ow output region width
+     * @param oh output region height
+     * @param dest receives the region rows packed, starting at its position */
+    public static void downscale(int[] src, int width, int height, int scale, int ox, int oy, int ow, int oh, IntBuffer dest) {
+        for (int y = oy; y < oy + oh; y++) {
+            int sy0 = y * scale, sy1 = Math.min(height, sy0 + scale);
+            for (int x = ox; x < ox + ow; x++) {
+                int sx0 = x * scale, sx1 = Math.min(width, sx0 + scale);
+                long a = 0, r = 0, g = 0, b = 0;
+                for (int sy = sy0; sy < sy1; sy++) {
+                    for (int i = sy * width + sx0, end = sy * width + sx1; i < end; i++) {
+                        int c = src[i];
+                        int alpha = c >>> 24;
+                        a += alpha;
+                        r += ((c >> 16) & 0xff) * alpha;
+                        g += ((c >> 8) & 0xff) * alpha;
+                        b += (c & 0xff) * alpha;
+                    }
+                }
+                int count = (sy1 - sy0) * (sx1 - sx0);
+                dest.put(a == 0 ? 0 : (int) (a / count) << 24 | (int) (r / a) << 16 | (int) (g / a) << 8 | (int) (b / a));
+            }
+        }
+    }
+    
     /** Gets the image contents of frame n.
      *
      * @return BufferedImage representation of frame, or null if n is invalid. */
@@ -255,15 +468,17 @@ public class GifDecoder {
      *
      * @return GIF image dimensions */
     public Dimension getFrameSize() {
-        return new Dimension(width, height);
+        return new Dimension(getWidth(), getHeight());
     }
 
+    /** Gets the frames width, downscaled when a max dimension is set */
     public int getWidth() {
-        return width;
+        return (width + scale - 1) / scale;
     }
 
+    /** Gets the frames height, downscaled when a max dimension is set */
     public int getHeight() {
-        return height;
+        return (height + scale - 1) / scale;
     }
 
     public long getDuration() {
@@ -296,7 +511,34 @@ public class GifDecoder {
     }
 
     public int read(byte[] data) {
-        return read(new ByteArrayInputStream(data));
+        return read(data != null ? ByteBuffer.wrap(data) : null);
+    }
+
+    /** Reads GIF image from a buffer, mapped files are read without copying them into the heap
+     *
+     * @param data
+     *            ByteBuffer containing GIF file, its position is not modified.
+     * @return read status code (0 = no errors) */
+    public int read(ByteBuffer data) {
+        init();
+        if (data != null) {
+            in = null;
+            this.data = data.slice(); // ALREADY IN MEMORY, NO NEED OF STREAMS
+            readHeader();
+            if (!err()) {
+                readContents();
+                if (frameCount < 0) {
+                    status = STATUS_FORMAT_ERROR;
+                }
+            }
+            if (palettedGif != null) {
+                palettedGif.attach(data.slice(), this, lazy); // frames are decoded from the buffer
+            }
+        } else {
+            status = STATUS_OPEN_ERROR;
+        }
+        this.data = null;
+        return status;
     }
     
     /** Reads GIF image from stream
@@ -309,7 +551,7 @@ public class GifDecoder {
         if (is != null) {
             if (!(is instanceof BufferedInputStream))
                 is = new BufferedInputStream(is);
-            in = (BufferedInputStream) is;
+            in = is;
             readHeader();
             if (!err()) {
                 readContents();
@@ -478,12 +720,20 @@ public class GifDecoder {
         status = STATUS_OK;
         frameCount = 0;
         frames = new ArrayList<>();
+        lastImage = null;
+        beforeLastImage = null;
+        data = null;
+        palettedGif = null;
+        lastPalette = null;
         gct = null;
         lct = null;
     }
     
     /** Reads a single byte from the input stream. */
     protected int read() {
+        if (data != null) {
+            return data.hasRemaining() ? data.get() & 0xff : -1;
+        }
         int curByte = 0;
         try {
             curByte = in.read();
@@ -499,7 +749,13 @@ public class GifDecoder {
     protected int readBlock() {
         blockSize = read();
         int n = 0;
-        if (blockSize > 0) {
+        if (blockSize > 0 && data != null) {
+            n = Math.min(blockSize, data.remaining());
+            data.get(block, 0, n);
+            if (n < blockSize) {
+                status = STATUS_FORMAT_ERROR;
+            }
+        } else if (blockSize > 0) {
             try {
                 int count = 0;
                 while (n < blockSize) {
@@ -525,11 +781,19 @@ public class GifDecoder {
     protected int[] readColorTable(int ncolors) {
         int nbytes = 3 * ncolors;
         int[] tab = null;
-        byte[] c = new byte[nbytes];
+        byte[] c = colorBytes;
         int n = 0;
-        try {
-            n = in.read(c);
-        } catch (IOException e) {}
+        if (data != null) {
+            n = Math.min(nbytes, data.remaining());
+            data.get(c, 0, n);
+        } else {
+            try {
+                int count;
+                while (n < nbytes && (count = in.read(c, n, nbytes - n)) != -1) {
+                    n += count; // STREAMS MAY RETURN LESS THAN REQUESTED
+                }
+            } catch (IOException e) {}
+        }
         if (n < nbytes) {
             status = STATUS_FORMAT_ERROR;
         } else {
@@ -567,11 +831,7 @@ public class GifDecoder {
                         
                         case 0xff: // application extension
                             readBlock();
-                            String app = "";
-                            for (int i = 0; i < 11; i++) {
-                                app += (char) block[i];
-                            }
-                            if (app.equals("NETSCAPE2.0")) {
+                            if (blockSize == 11 && isBlock(NETSCAPE)) {
                                 readNetscapeExt();
                             } else
                                 skip(); // don't care
@@ -612,28 +872,48 @@ public class GifDecoder {
     
     /** Reads GIF file header information. */
     protected void readHeader() {
-        String id = "";
-        for (int i = 0; i < 6; i++) {
-            id += (char) read();
-        }
-        if (!id.startsWith("GIF")) {
+        boolean gif = read() == 'G' & read() == 'I' & read() == 'F';
+        read(); // version
+        read();
+        read();
+        if (!gif) {
             status = STATUS_FORMAT_ERROR;
             return;
         }
         
         readLSD();
+        if (maxPixels > 0 && (long) width * height > maxPixels) {
+            status = STATUS_TOO_LARGE;
+            return;
+        }
+        scale = 1;
+        if (maxDimension > 0 && Math.max(width, height) > maxDimension) {
+            scale = (Math.max(width, height) + maxDimension - 1) / maxDimension;
+        }
         if (gctFlag && !err()) {
             gct = readColorTable(gctSize);
             bgColor = gct[bgIndex];
         }
     }
     
+    /** Checks the current block contents */
+    protected boolean isBlock(byte[] id) {
+        for (int i = 0; i < id.length; i++) {
+            if (block[i] != id[i]) return false;
+        }
+        return true;
+    }
+    
     /** Reads next frame image */
     protected void readImage() {
         ix = readShort(); // (sub)image position & size
         iy = readShort();
         iw = readShort();
         ih = readShort();
+        if (maxPixels > 0 && (long) iw * ih > maxPixels) {
+            status = STATUS_TOO_LARGE; // FRAMES CAN BE BIGGER THAN THE SCREEN
+            return;
+        }
         
         int packed = read();
         lctFlag = (packed & 0x80) != 0; // 1 - local color table flag
@@ -663,7 +943,13 @@ public class GifDecoder {
         if (err())
             return;
         
-        decodeImageData(); // decode pixel data
+        int offset = -1;
+        if (paletted && data != null) {
+            offset = data.position(); // keep where the data starts, frames are decoded together after the scan
+            read(); // skip LZW code size, data blocks are skipped next
+        } else {
+            decodeImageData(); // decode pixel data
+        }
         skip();
         
         if (err())
@@ -671,12 +957,27 @@ public class GifDecoder {
         
         frameCount++;
         
-        // create new image to receive frame data
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        if (paletted) {
+            image = null;
+            setIndices(offset); // keep index data, composited when requested
+        } else {
+            // create new image to receive frame data
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            
+            setPixels(); // transfer pixel data to image
+        }
         
-        setPixels(); // transfer pixel data to image
+        BufferedImage frame = image;
+        if (frame != null && scale > 1) {
+            // keep full size image to composite next frames
+            frame = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB); // filtered edges are not premultiplied
+            int[] src = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            int[] dest = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+            downscale(src, width, height, scale, 0, 0, frame.getWidth(), frame.getHeight(), IntBuffer.wrap(dest));
+        }
         
-        frames.add(new GifFrame(image, delay)); // add image to frame list
+        frames.add(new GifFrame(frame, delay)); // add image to frame list
+        if (listener != null) listener.onFrame(frameCount - 1, frame, delay);
         
         if (transparency) {
             act[transIndex] = save;
@@ -725,7 +1026,11 @@ public class GifDecoder {
     /** Resets frame state for reading next image. */
     protected void resetFrame() {
         lastDispose = dispose;
-        lastRect = new Rectangle(ix, iy, iw, ih);
+        if (lastRect == null) {
+            lastRect = new Rectangle();
+        }
+        lastRect.setBounds(ix, iy, iw, ih);
+        beforeLastImage = lastImage;
         lastImage = image;
         lastBgColor = bgColor;
         lct = null;
@@ -0,0 +1,429 @@
+package org.watermedia.api.image.decoders;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * GIF frames stored as their 8-bit index planes plus the active color table of each frame.
+ * Frames are composited and expanded into BGRA only when they are requested,
+ * using a few reusable canvases instead of keeping every frame as 32-bit pixels.
+ * Long animations read lazily keeps only where each frame starts on the source and decodes them
+ * into a small window, with a few keyframes to seek without compositing from the first frame
+ */
+public class PalettedGif {
+    public static final int BASE_BLANK = 0;
+    public static final int BASE_PREVIOUS = 1;
+    public static final int BASE_BEFORE_PREVIOUS = 2;
+    private static final long EAGER_LIMIT = 8 * 1024 * 1024; // SMALLER ANIMATIONS ARE DECODED AT ONCE
+    private static final long PARALLEL_THRESHOLD = 256 * 1024; // SMALLER ANIMATIONS ARE NOT WORTH TO SPLIT
+    private static final int WINDOW = 8;
+    private static final int MAX_KEYFRAMES = 4;
+    private static final int MIN_KEYFRAME_INTERVAL = 16;
+
+    public final int width; // OUTPUT SIZE
+    public final int height;
+    public final int scale; // BOX FILTER SIZE, 1 KEEPS THE ORIGINAL SIZE
+    private final int canvasWidth;
+    private final int canvasHeight;
+    private final List<Frame> frames = new ArrayList<>();
+    private long bytes;
+
+    // COMPOSITING STATE
+    private int[] canvas; // FRAME canvasIndex
+    private int[] previous; // FRAME canvasIndex - 1
+    private int[] spare;
+    private int canvasIndex = -1;
+    private final int[] dirty = new int[4]; // REGION CHANGED BY THE LAST STEP
+    private final int[] lastDirty = new int[4];
+
+    // LAZY STATE
+    private ByteBuffer source;
+    private GifDecoder decoder;
+    private byte[][] window;
+    private int[] windowIndex;
+    private int keyframeInterval;
+    private final TreeMap<Integer, Keyframe> keyframes = new TreeMap<>();
+
+    public PalettedGif(int width, int height) {
+        this(width, height, 1);
+    }
+
+    /**
+     * @param width canvas width
+     * @param height canvas height
+     * @param scale frames are downscaled by this factor when they are expanded
+     */
+    public PalettedGif(int width, int height, int scale) {
+        this.scale = Math.max(1, scale);
+        this.canvasWidth = width;
+        this.canvasHeight = height;
+        this.width = (width + this.scale - 1) / this.scale;
+        this.height = (height + this.scale - 1) / this.scale;
+    }
+
+    synchronized void add(Frame frame) {
+        if (frames.isEmpty() || frames.get(frames.size() - 1).palette != frame.palette) {
+            bytes += frame.palette.length * 4L;
+        }
+        frames.add(frame);
+        if (frame.indices != null) bytes += frame.indices.length;
+    }
+
+    /**
+     * Sets the source of the indexed frames, frames are decoded in parallel right away
+     * unless the animation is long and lazy decoding was requested
+     * @param source buffer the GIF was read from, frame offsets are relative to its position
+     * @param decoder decoder used to read the GIF
+     * @param lazy true to decode long animations while they are composited
+     */
+    synchronized void attach(ByteBuffer source, GifDecoder decoder, boolean lazy) {
+        List<Frame> pending = new ArrayList<>();
+        long pixels = 0;
+        for (Frame frame: frames) {
+            if (frame.indices != null) continue;
+            pending.add(frame);
+            pixels += (long) frame.w * frame.h;
+        }
+        if (pending.isEmpty()) return;
+
+        if (!lazy || pixels <= EAGER_LIMIT) {
+            // LZW STREAMS ARE INDEPENDENT, ONLY COMPOSITING IS SEQUENTIAL
+            Decode task = new Decode(source, pending, 0, pending.size(), Math.max(1, pending.size() / (ForkJoinPool.getCommonPoolParallelism() * 4)));
+            if (pending.size() > 1 && pixels >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+                ForkJoinPool.commonPool().invoke(task);
+            } else {
+                task.compute();
+            }
+            for (Frame frame: pending) {
+                bytes += frame.indices.length;
+            }
+            return;
+        }
+
+        this.source = source;
+        this.decoder = decoder;
+        this.window = new byte[WINDOW][];
+        this.windowIndex = new int[WINDOW];
+        Arrays.fill(windowIndex, -1);
+        this.keyframeInterval = Math.max(MIN_KEYFRAME_INTERVAL, frames.size() / (MAX_KEYFRAMES + 1));
+    }
+
+    /**
+     * @return true if frames are decoded from the source when they are composited
+     */
+    public synchronized boolean isLazy() {
+        return source != null;
+    }
+
+    public synchronized int getFrameCount() {
+        return frames.size();
+    }
+
+    public synchronized long[] getDelays() {
+        long[] delays = new long[frames.size()];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = frames.get(i).delay;
+        }
+        return delays;
+    }
+
+    /**
+     * @return bytes used by index planes and palettes, palettes are shared between frames when they are equal.
+     * Lazy animations also counts the decoded window and keyframes
+     */
+    public synchronized long getByteSize() {
+        long size = bytes;
+        if (window != null) {
+            for (byte[] indices: window) {
+                if (indices != null) size += indices.length;
+            }
+        }
+        for (Keyframe keyframe: keyframes.values()) {
+            size += keyframe.canvas.length * 4L;
+            if (keyframe.previous != null) size += keyframe.previous.length * 4L;
+        }
+        return size;
+    }
+
+    /**
+     * Composites the frame and writes it as BGRA pixels (native order ints, same as {@link java.awt.image.BufferedImage#TYPE_INT_ARGB})
+     * downscaled to {@link #width} x {@link #height}
+     * Sequential requests only composite the new frame, random access recomposites from the first frame
+     * @param index frame index
+     * @param dest buffer with at least width * height * 4 bytes remaining, its position is not modified
+     */
+    public synchronized void expand(int index, ByteBuffer dest) {
+        if (index < 0 || index >= frames.size()) throw new IndexOutOfBoundsException("Frame " + index + " of " + frames.size());
+        this.seek(index);
+        if (scale == 1) {
+            dest.asIntBuffer().put(canvas);
+        } else {
+            GifDecoder.downscale(canvas, canvasWidth, canvasHeight, scale, 0, 0, width, height, dest.asIntBuffer());
+        }
+    }
+
+    /**
+     * Composites the frame and writes only the region that changed since frame {@code from} in its place,
+     * so a buffer holding frame {@code from} ends holding frame {@code index}. Regions of several calls can be
+     * joined and uploaded at once. Used to update a single texture in place
+     * @param index frame index
+     * @param from frame the buffer holds, or -1 to write the whole frame
+     * @param dest buffer with at least width * height * 4 bytes remaining, its position is not modified
+     * @return changed region as {x, y, width, height}, width and height are 0 when nothing changed
+     */
+    public synchronized int[] expand(int index, int from, ByteBuffer dest) {
+        if (index < 0 || index >= frames.size()) throw new IndexOutOfBoundsException("Frame " + index + " of " + frames.size());
+        int[] region = new int[4];
+        if (from == index && from == canvasIndex) return region;
+
+        if (from < 0 || from != canvasIndex || index < from) {
+            // CANVAS IS NOT WHAT THE DESTINATION HAS, WRITE IT ALL
+            this.expand(index, dest);
+            region[2] = width;
+            region[3] = height;
+            return region;
+        }
+
+        int x0 = canvasWidth, y0 = canvasHeight, x1 = 0, y1 = 0;
+        while (canvasIndex < index) {
+            this.advance();
+            if (dirty[2] <= 0 || dirty[3] <= 0) continue;
+            x0 = Math.min(x0, dirty[0]);
+            y0 = Math.min(y0, dirty[1]);
+            x1 = Math.max(x1, dirty[0] + dirty[2]);
+            y1 = Math.max(y1, dirty[1] + dirty[3]);
+        }
+        if (x1 <= x0 || y1 <= y0) return region;
+
+        if (scale > 1) {
+            // OUTPUT PIXELS TOUCHING THE REGION
+            x0 /= scale;
+            y0 /= scale;
+            x1 = Math.min(width, (x1 + scale - 1) / scale);
+            y1 = Math.min(height, (y1 + scale - 1) / scale);
+        }
+        region[0] = x0;
+        region[1] = y0;
+        region[2] = x1 - x0;
+        region[3] = y1 - y0;
+        IntBuffer out = dest.asIntBuffer();
+        for (int y = y0; y < y1; y++) {
+            out.position(y * width + x0);
+            if (scale > 1) {
+                GifDecoder.downscale(canvas, canvasWidth, canvasHeight, scale, x0, y, region[2], 1, out);
+            } else {
+                out.put(canvas, y * canvasWidth + x0, region[2]);
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Drops the compositing canvases, decoded window and keyframes, next expand starts from the first frame
+     */
+    public synchronized void trim() {
+        canvas = previous = spare = null;
+        canvasIndex = -1;
+        keyframes.clear();
+        if (window != null) {
+            Arrays.fill(window, null);
+            Arrays.fill(windowIndex, -1);
+        }
+    }
+
+    private void seek(int index) {
+        Map.Entry<Integer, Keyframe> keyframe = keyframes.floorEntry(index);
+        if (keyframe != null && (index < canvasIndex || keyframe.getKey() > canvasIndex)) {
+            // RESTORE THE CLOSEST KEYFRAME
+            Keyframe k = keyframe.getValue();
+            int size = canvasWidth * canvasHeight;
+            if (canvas == null) canvas = new int[size];
+            System.arraycopy(k.canvas, 0, canvas, 0, size);
+            if (k.previous != null) {
+                if (previous == null) previous = new int[size];
+                System.arraycopy(k.previous, 0, previous, 0, size);
+            }
+            System.arraycopy(k.dirty, 0, dirty, 0, 4);
+            canvasIndex = keyframe.getKey();
+        } else if (index < canvasIndex) {
+            canvasIndex = -1; // GO BACK FROM THE START
+        }
+
+        while (canvasIndex < index) {
+            this.advance();
+        }
+    }
+
+    private void advance() {
+        int index = canvasIndex + 1;
+        this.step(frames.get(index), index);
+        canvasIndex = index;
+
+        if (source != null && index % keyframeInterval == 0 && index > 0 && !keyframes.containsKey(index)) {
+            // PREVIOUS CANVAS IS ONLY NEEDED BY RESTORE TO PREVIOUS
+            boolean before = index + 1 < frames.size() && frames.get(index + 1).base == BASE_BEFORE_PREVIOUS;
+            keyframes.put(index, new Keyframe(canvas.clone(), before ? previous.clone() : null, dirty.clone()));
+        }
+    }
+
+    private byte[] indices(Frame frame, int index) {
+        if (frame.indices != null) return frame.indices;
+
+        int slot = index % window.length;
+        if (windowIndex[slot] != index) {
+            window[slot] = decoder.decodeIndices(source, frame.offset, frame.w, frame.h, frame.interlace, window[slot]);
+            windowIndex[slot] = index;
+        }
+        return window[slot];
+    }
+
+    private void step(Frame frame, int index) {
+        int size = canvasWidth * canvasHeight;
+        if (spare == null) spare = new int[size];
+        int[] dest = spare;
+
+        // BASE CONTENTS
+        System.arraycopy(dirty, 0, lastDirty, 0, 4);
+        int[] base = null;
+        switch (frame.base) {
+            case BASE_PREVIOUS: base = canvasIndex >= 0 ? canvas : null; break;
+            case BASE_BEFORE_PREVIOUS: base = canvasIndex >= 1 ? previous : null; break;
+        }
+        if (base != null) {
+            System.arraycopy(base, 0, dest, 0, size);
+            this.dirty(frame.x, frame.y, frame.w, frame.h);
+            if (frame.base == BASE_BEFORE_PREVIOUS) {
+                this.union(lastDirty); // RESTORES WHAT THE PREVIOUS FRAME CHANGED
+            }
+            if (frame.clear != null) {
+                int[] r = frame.clear;
+                int x1 = Math.min(canvasWidth, r[0] + r[2]), y1 = Math.min(canvasHeight, r[1] + r[3]);
+                for (int y = Math.max(0, r[1]); y < y1; y++) {
+                    Arrays.fill(dest, y * canvasWidth + Math.max(0, r[0]), y * canvasWidth + x1, frame.clearColor);
+                }
+                this.union(r);
+            }
+        } else {
+            Arrays.fill(dest, 0);
+            this.dirty(0, 0, canvasWidth, canvasHeight);
+        }
+
+        // DRAW FRAME
+        int[] palette = frame.palette;
+        byte[] indices = this.indices(frame, index);
+        for (int row = 0; row < frame.h; row++) {
+            int line = frame.y + row;
+            if (line >= canvasHeight) break;
+            int dx = line * canvasWidth + frame.x;
+            int dlim = Math.min(dx + frame.w, (line + 1) * canvasWidth);
+            int sx = row * frame.w;
+            while (dx < dlim) {
+                int c = palette[indices[sx++] & 0xff];
+                if (c != 0) dest[dx] = c;
+                dx++;
+            }
+        }
+
+        // CLAMP TO THE CANVAS
+        int x0 = Math.max(0, dirty[0]), y0 = Math.max(0, dirty[1]);
+        int x1 = Math.min(canvasWidth, dirty[0] + dirty[2]), y1 = Math.min(canvasHeight, dirty[1] + dirty[3]);
+        this.dirty(x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0));
+
+        // ROTATE CANVASES
+        spare = previous;
+        previous = canvas;
+        canvas = dest;
+    }
+
+    private void dirty(int x, int y, int w, int h) {
+        dirty[0] = x;
+        dirty[1] = y;
+        dirty[2] = w;
+        dirty[3] = h;
+    }
+
+    private void union(int[] r) {
+        if (r[2] <= 0 || r[3] <= 0) return;
+        if (dirty[2] <= 0 || dirty[3] <= 0) {
+            this.dirty(r[0], r[1], r[2], r[3]);
+            return;
+        }
+        int x0 = Math.min(dirty[0], r[0]), y0 = Math.min(dirty[1], r[1]);
+        int x1 = Math.max(dirty[0] + dirty[2], r[0] + r[2]), y1 = Math.max(dirty[1] + dirty[3], r[1] + r[3]);
+        this.dirty(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private static final class Decode extends RecursiveAction {
+        private final ByteBuffer source;
+        private final List<Frame> frames;
+        private final int from, to, grain;
+
+        private Decode(ByteBuffer source, List<Frame> frames, int from, int to, int grain) {
+            this.source = source;
+            this.frames = frames;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Decode(source, frames, from, middle, grain), new Decode(source, frames, middle, to, grain));
+                return;
+            }
+            GifDecoder lzw = new GifDecoder(); // LZW TABLES ARE REUSED FOR THE WHOLE RANGE
+            for (int i = from; i < to; i++) {
+                Frame frame = frames.get(i);
+                frame.indices = lzw.decodeIndices(source, frame.offset, frame.w, frame.h, frame.interlace, null);
+            }
+        }
+    }
+
+    private static final class Keyframe {
+        final int[] canvas;
+        final int[] previous;
+        final int[] dirty;
+
+        Keyframe(int[] canvas, int[] previous, int[] dirty) {
+            this.canvas = canvas;
+            this.previous = previous;
+            this.dirty = dirty;
+        }
+    }
+
+    static final class Frame {
+        final int x, y, w, h;
+        final boolean interlace;
+        byte[] indices; // DEINTERLACED ROWS, NULL ON LAZY FRAMES
+        final int offset; // IMAGE DATA START ON LAZY FRAMES
+        final int[] palette; // TRANSPARENT INDEX IS 0
+        final int base;
+        final int[] clear; // RECT FILLED AFTER COPYING THE BASE, NULLABLE
+        final int clearColor;
+        final int delay;
+
+        Frame(int x, int y, int w, int h, boolean interlace, byte[] indices, int offset, int[] palette, int base, int[] clear, int clearColor, int delay) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.interlace = interlace;
+            this.indices = indices;
+            this.offset = offset;
+            this.palette = palette;
+            this.base = base;
+            this.clear = clear;
+            this.clearColor = clearColor;
+            this.delay = delay;
+        }
+    }
+}
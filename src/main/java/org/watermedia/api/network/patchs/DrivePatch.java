@@ -57,37 +57,38 @@ public class DrivePatch extends AbstractPatch {
             String url = String.format(DOWNLOAD_URL, fileId);
 
             // FIRST CHECK IF FILE CAN BE DOWNLOADED (WHEN NOT THIS THROWS AN EXCEPTION)
-            HttpURLConnection conn = NetTool.connectToHTTP(url, "GET");
-            int code = conn.getResponseCode();
-
-            switch (code) {
-                case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("File doesn't exists or isn't available anymore");
-                case HttpURLConnection.HTTP_FORBIDDEN:
-                case HttpURLConnection.HTTP_UNAUTHORIZED: throw new IllegalAccessException("File has not public accesibility");
-                default:
-                    if (code != HttpURLConnection.HTTP_OK)
-                        throw new UnsupportedOperationException("Google responses with a unexpected status code: " + code);
-            }
+            try (NetTool.Request request = NetTool.request(url, "GET")) {
+                HttpURLConnection conn = request.http();
+                int code = conn.getResponseCode();
+
+                switch (code) {
+                    case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("File doesn't exists or isn't available anymore");
+                    case HttpURLConnection.HTTP_FORBIDDEN:
+                    case HttpURLConnection.HTTP_UNAUTHORIZED: throw new IllegalAccessException("File has not public accesibility");
+                    default:
+                        if (code != HttpURLConnection.HTTP_OK)
+                            throw new UnsupportedOperationException("Google responses with a unexpected status code: " + code);
+                }
 
-            if (conn.getContentType().startsWith("text/html")) {
-                try (InputStream in = conn.getInputStream()) {
-                    String html = new String(DataTool.readAllBytes(in), StandardCharsets.UTF_8);
-                    Matcher matcher = HTML_PATTERN.matcher(html);
+                if (conn.getContentType().startsWith("text/html")) {
+                    try (InputStream in = conn.getInputStream()) {
+                        String html = new String(DataTool.readAllBytes(in), StandardCharsets.UTF_8);
+                        Matcher matcher = HTML_PATTERN.matcher(html);
 
-                    final Map<String, String> form = new HashMap<>();
-                    while (matcher.find()) {
-                        form.put(matcher.group(1), matcher.group(2));
-                    }
+                        final Map<String, String> form = new HashMap<>();
+                        while (matcher.find()) {
+                            form.put(matcher.group(1), matcher.group(2));
+                        }
 
-                    if (!form.containsKey("uuid"))
-                        throw new IllegalAccessException("File");
+                        if (!form.containsKey("uuid"))
+                            throw new IllegalAccessException("File");
 
-                    url += "&uuid="+form.get("uuid") + "&at="+form.get("at") + "&confirm=t";
+                        url += "&uuid="+form.get("uuid") + "&at="+form.get("at") + "&confirm=t";
+                    }
                 }
-            }
 
-            conn.disconnect();
-            return new Result(new URI(url), conn.getContentType().startsWith("video"), false);
+                return new Result(new URI(url), conn.getContentType().startsWith("video"), false);
+            }
         } catch (Exception e) {
             throw new FixingURLException(uri, e);
         }
@@ -59,16 +59,14 @@ public class KickPatch extends AbstractPatch {
     }
 
     public InputStream getInputStream(URI url) throws IOException {
-        HttpURLConnection conn = NetTool.connectToHTTP(url, "GET");
-        conn.setRequestProperty("User-Agent", WaterMedia.USER_AGENT);
-        conn.setRequestProperty("Accept", "application/json");
-        try {
+        try (NetTool.Request request = NetTool.request(url, "GET")) {
+            HttpURLConnection conn = request.http();
+            conn.setRequestProperty("User-Agent", WaterMedia.USER_AGENT);
+            conn.setRequestProperty("Accept", "application/json");
             if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
                 throw new ConnectException(String.format("Server url %s response with status code (%s): %s", url, conn.getResponseCode(), conn.getResponseMessage()));
             }
             return new ByteArrayInputStream(DataTool.readAllBytes(conn.getInputStream()));
-        } finally {
-            conn.disconnect();
         }
     }
 }
@@ -43,22 +43,22 @@ public class LightshotPatch extends AbstractPatch {
     }
 
     public String connectToLightshot(URI url) throws IOException {
-        HttpURLConnection conn = NetTool.connectToHTTP(url, "GET");
-        int code = conn.getResponseCode();
+        try (NetTool.Request request = NetTool.request(url, "GET")) {
+            HttpURLConnection conn = request.http();
+            int code = conn.getResponseCode();
 
-        switch (code) {
-            case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("Image was not found");
-            case HttpURLConnection.HTTP_FORBIDDEN:
-            case HttpURLConnection.HTTP_UNAUTHORIZED: throw new UnsupportedOperationException("Access denied by Lightshot");
-            default:
-                if (code != HttpURLConnection.HTTP_OK)
-                    throw new UnsupportedOperationException("Lightshot responses with a unexpected status code: " + code);
-        }
+            switch (code) {
+                case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("Image was not found");
+                case HttpURLConnection.HTTP_FORBIDDEN:
+                case HttpURLConnection.HTTP_UNAUTHORIZED: throw new UnsupportedOperationException("Access denied by Lightshot");
+                default:
+                    if (code != HttpURLConnection.HTTP_OK)
+                        throw new UnsupportedOperationException("Lightshot responses with a unexpected status code: " + code);
+            }
 
-        try (InputStream in = conn.getInputStream()) {
-            return new String(DataTool.readAllBytes(in), StandardCharsets.UTF_8);
-        } finally {
-            conn.disconnect();
+            try (InputStream in = conn.getInputStream()) {
+                return new String(DataTool.readAllBytes(in), StandardCharsets.UTF_8);
+            }
         }
     }
 }
@@ -35,32 +35,34 @@ public class MediaFirePatch extends AbstractPatch {
         super.patch(uri, prefQuality);
 
         try {
-            HttpURLConnection conn = NetTool.connectToHTTP(uri, "GET");
+            try (NetTool.Request request = NetTool.request(uri, "GET")) {
+                HttpURLConnection conn = request.http();
 
-            int code = conn.getResponseCode();
-            switch (code) {
-                case HttpURLConnection.HTTP_INTERNAL_ERROR: throw new Exception("MediaFire is on fire (literally)");
-                case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("MediaFire file is on fire (literally)");
-                case HttpURLConnection.HTTP_FORBIDDEN:
-                case HttpURLConnection.HTTP_UNAUTHORIZED:
-                    throw new UnsupportedOperationException("MediaFire placed a firewall to us - URL: " + uri);
-                default:
-                    if (code != HttpURLConnection.HTTP_OK)
-                        throw new UnsupportedOperationException("Unexpected fired response from MediaFire (" + code + ") - URL: " + uri);
-            }
+                int code = conn.getResponseCode();
+                switch (code) {
+                    case HttpURLConnection.HTTP_INTERNAL_ERROR: throw new Exception("MediaFire is on fire (literally)");
+                    case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("MediaFire file is on fire (literally)");
+                    case HttpURLConnection.HTTP_FORBIDDEN:
+                    case HttpURLConnection.HTTP_UNAUTHORIZED:
+                        throw new UnsupportedOperationException("MediaFire placed a firewall to us - URL: " + uri);
+                    default:
+                        if (code != HttpURLConnection.HTTP_OK)
+                            throw new UnsupportedOperationException("Unexpected fired response from MediaFire (" + code + ") - URL: " + uri);
+                }
 
-            String html = new String(DataTool.readAllBytes(conn.getInputStream()), StandardCharsets.UTF_8);
-            Matcher popsokMatcher = PATTERN_POPSOK.matcher(html);
-            Matcher dataScrambledMatcher = PATTERN_DATA_SCRAMBLED.matcher(html);
+                String html = new String(DataTool.readAllBytes(conn.getInputStream()), StandardCharsets.UTF_8);
+                Matcher popsokMatcher = PATTERN_POPSOK.matcher(html);
+                Matcher dataScrambledMatcher = PATTERN_DATA_SCRAMBLED.matcher(html);
 
-            if (popsokMatcher.find()) {
-                return new Result(new URI(popsokMatcher.group(1)), false, false);
-            } else if (dataScrambledMatcher.find()) {
-                String encoded = popsokMatcher.group(1);
-                byte[] decoded = Base64.getDecoder().decode(encoded);
-                return new Result(new URI(new String(decoded, StandardCharsets.UTF_8)), false, false);
-            } else {
-                throw new NullPointerException("No link found in MediaFire page - URL: " + uri);
+                if (popsokMatcher.find()) {
+                    return new Result(new URI(popsokMatcher.group(1)), false, false);
+                } else if (dataScrambledMatcher.find()) {
+                    String encoded = popsokMatcher.group(1);
+                    byte[] decoded = Base64.getDecoder().decode(encoded);
+                    return new Result(new URI(new String(decoded, StandardCharsets.UTF_8)), false, false);
+                } else {
+                    throw new NullPointerException("No link found in MediaFire page - URL: " + uri);
+                }
             }
         } catch (Exception e) {
             throw new FixingURLException(uri.toString(), e);
@@ -29,39 +29,41 @@ public class PornHubPatch extends AbstractPatch {
     public Result patch(URI uri, Quality prefQuality) throws FixingURLException {
         super.patch(uri, prefQuality);
         try {
-            HttpURLConnection conn = NetTool.connectToHTTP(uri, "GET");
-
-            int code = conn.getResponseCode();
-            switch (code) {
-                case HttpURLConnection.HTTP_INTERNAL_ERROR: throw new Exception("Pornhub died");
-                case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("Porn video not found");
-                case HttpURLConnection.HTTP_FORBIDDEN:
-                case HttpURLConnection.HTTP_UNAUTHORIZED:
-                    throw new UnsupportedOperationException("Pornhub blocked us API access - URL: " + uri);
-                default:
-                    if (code != HttpURLConnection.HTTP_OK)
-                        throw new UnsupportedOperationException("Unexpected response from Pornhub (" + code + ") - URL: " + uri);
-            }
+            try (NetTool.Request request = NetTool.request(uri, "GET")) {
+                HttpURLConnection conn = request.http();
+
+                int code = conn.getResponseCode();
+                switch (code) {
+                    case HttpURLConnection.HTTP_INTERNAL_ERROR: throw new Exception("Pornhub died");
+                    case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("Porn video not found");
+                    case HttpURLConnection.HTTP_FORBIDDEN:
+                    case HttpURLConnection.HTTP_UNAUTHORIZED:
+                        throw new UnsupportedOperationException("Pornhub blocked us API access - URL: " + uri);
+                    default:
+                        if (code != HttpURLConnection.HTTP_OK)
+                            throw new UnsupportedOperationException("Unexpected response from Pornhub (" + code + ") - URL: " + uri);
+                }
 
-            String html = new String(DataTool.readAllBytes(conn.getInputStream()), StandardCharsets.UTF_8);
-            Matcher matcher = PATTERN.matcher(html);
+                String html = new String(DataTool.readAllBytes(conn.getInputStream()), StandardCharsets.UTF_8);
+                Matcher matcher = PATTERN.matcher(html);
 
-            if (!matcher.find()) throw new UnsupportedOperationException("No flashvars found in the page");
-            String result = matcher.group();
+                if (!matcher.find()) throw new UnsupportedOperationException("No flashvars found in the page");
+                String result = matcher.group();
 
-            result = result.substring(result.indexOf('{'), result.length() - 1);
+                result = result.substring(result.indexOf('{'), result.length() - 1);
 
-            FlashVars flashVars = DataTool.fromJSON(result, FlashVars.class);
+                FlashVars flashVars = DataTool.fromJSON(result, FlashVars.class);
 
-            String url = flashVars.mediaDefinitions[0].videoUrl;
+                String url = flashVars.mediaDefinitions[0].videoUrl;
 
-            for (FlashVars.MediaDefinition mediaDefinition: flashVars.mediaDefinitions) {
-                if (mediaDefinition.defaultQuality) {
-                    url = mediaDefinition.videoUrl;
+                for (FlashVars.MediaDefinition mediaDefinition: flashVars.mediaDefinitions) {
+                    if (mediaDefinition.defaultQuality) {
+                        url = mediaDefinition.videoUrl;
+                    }
                 }
-            }
 
-            return new Result(new URI(url), true, false);
+                return new Result(new URI(url), true, false);
+            }
         } catch (Exception e) {
             throw new FixingURLException(uri.toString(), e);
         }
@@ -28,14 +28,14 @@ public class StreamablePatch extends AbstractPatch {
         String videoId = uri.getPath().substring(1);
 
         try {
-            HttpURLConnection connection = NetTool.connectToHTTP(new URI(API_URL + videoId), "GET");
-            if (connection.getResponseCode() == 404) throw new NullPointerException("Video doesn't exists");
-
-            try (InputStreamReader is = new InputStreamReader(connection.getInputStream())) {
-                SAVideo video = GSON.fromJson(is, SAVideo.class);
-                return new Result(new URI(video.files.mp4.url), true, false);
-            } finally {
-                connection.disconnect();
+            try (NetTool.Request request = NetTool.request(new URI(API_URL + videoId), "GET")) {
+                HttpURLConnection connection = request.http();
+                if (connection.getResponseCode() == 404) throw new NullPointerException("Video doesn't exists");
+
+                try (InputStreamReader is = new InputStreamReader(connection.getInputStream())) {
+                    SAVideo video = GSON.fromJson(is, SAVideo.class);
+                    return new Result(new URI(video.files.mp4.url), true, false);
+                }
             }
         } catch (Exception e) {
             throw new FixingURLException(uri, e);
@@ -47,42 +47,42 @@ public class TwitterPatch extends AbstractPatch {
             if (!m.find()) throw new Exception("No twitter ID match found");
             final String apiURL = String.format(API_URL, m.group(1), API_KEY);
 
-            final HttpURLConnection conn = NetTool.connectToHTTP(apiURL, "GET");
-
-            int code = conn.getResponseCode();
-            switch (code) {
-                case HttpURLConnection.HTTP_INTERNAL_ERROR: throw new Exception("Twitter died");
-                case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("Tweet not found");
-                case HttpURLConnection.HTTP_FORBIDDEN:
-                case HttpURLConnection.HTTP_UNAUTHORIZED:
-                        throw new UnsupportedOperationException("Twitter blocked us API access - URL: " + apiURL);
-                default:
-                    if (code != HttpURLConnection.HTTP_OK)
-                        throw new UnsupportedOperationException("Unexpected response from twitter (" + code + ") - URL: " + apiURL);
-            }
+            try (NetTool.Request request = NetTool.request(apiURL, "GET")) {
+                final HttpURLConnection conn = request.http();
+
+                int code = conn.getResponseCode();
+                switch (code) {
+                    case HttpURLConnection.HTTP_INTERNAL_ERROR: throw new Exception("Twitter died");
+                    case HttpURLConnection.HTTP_NOT_FOUND: throw new NullPointerException("Tweet not found");
+                    case HttpURLConnection.HTTP_FORBIDDEN:
+                    case HttpURLConnection.HTTP_UNAUTHORIZED:
+                            throw new UnsupportedOperationException("Twitter blocked us API access - URL: " + apiURL);
+                    default:
+                        if (code != HttpURLConnection.HTTP_OK)
+                            throw new UnsupportedOperationException("Unexpected response from twitter (" + code + ") - URL: " + apiURL);
+                }
 
-            try (final InputStream in = conn.getInputStream()) {
-                final Tweet tweet = DataTool.fromJSON(new String(DataTool.readAllBytes(in)), Tweet.class);
+                try (final InputStream in = conn.getInputStream()) {
+                    final Tweet tweet = DataTool.fromJSON(new String(DataTool.readAllBytes(in)), Tweet.class);
 
-                if (tweet.typename.equals(__TYTE_TOMB)) {
-                    throw new UnsupportedOperationException("Tomb received: " + tweet.tombstone.text);
-                }
+                    if (tweet.typename.equals(__TYTE_TOMB)) {
+                        throw new UnsupportedOperationException("Tomb received: " + tweet.tombstone.text);
+                    }
 
-                if (tweet.mediaDetails == null || tweet.mediaDetails.length == 0) {
-                    throw new NullPointerException("No media was detected");
-                }
+                    if (tweet.mediaDetails == null || tweet.mediaDetails.length == 0) {
+                        throw new NullPointerException("No media was detected");
+                    }
 
-                MediaDetail media = tweet.mediaDetails[0];
+                    MediaDetail media = tweet.mediaDetails[0];
 
-                if (media.type.equals("photo")) {
-                    return new Result(new URI(media.mediaUrlHttps), false, false);
-                } else if (media.type.equals("video")) {
-                    return new Result(new URI(media.videoInfo.variants[0].url), true, false);
-                } else {
-                    throw new UnsupportedOperationException("Unsupported media type was detected");
+                    if (media.type.equals("photo")) {
+                        return new Result(new URI(media.mediaUrlHttps), false, false);
+                    } else if (media.type.equals("video")) {
+                        return new Result(new URI(media.videoInfo.variants[0].url), true, false);
+                    } else {
+                        throw new UnsupportedOperationException("Unsupported media type was detected");
+                    }
                 }
-            } finally {
-                conn.disconnect();
             }
         } catch (Exception e) {
             throw new FixingURLException(uri, e);
@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -79,11 +78,10 @@ public class YoutubePatch extends AbstractPatch {
                     }
 
                     if (videoInfo != null) {
-                        HttpURLConnection conn = NetTool.connectToHTTP(URI.create(response.data().bestVideoFormat().url()), "GET");
-                        if (conn.getResponseCode() != 403) {
-                            conn.disconnect();
-                        } else {
-                            videoInfo = null;
+                        try (NetTool.Request probe = NetTool.request(URI.create(response.data().bestVideoFormat().url()), "GET")) {
+                            if (probe.http().getResponseCode() == 403) {
+                                videoInfo = null;
+                            }
                         }
                     }
                 } while (!WORKING_TESTED && videoInfo == null && ++client < DefaultClients.VALUES.length);
@@ -135,20 +133,20 @@ public class YoutubePatch extends AbstractPatch {
     }
 
     private String fetchLivePlaylist(String url) throws IOException {
-        URL apiUrl = new URL(url);
-        HttpURLConnection conn = (HttpURLConnection) apiUrl.openConnection();
-        conn.setRequestMethod("GET");
-
-        int responseCode = conn.getResponseCode();
-        if (responseCode != HttpURLConnection.HTTP_OK) return null;
-
-        InputStream inputStream = conn.getInputStream();
-        ByteArrayOutputStream result = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int length;
-        while ((length = inputStream.read(buffer)) != -1) {
-            result.write(buffer, 0, length);
+        try (NetTool.Request request = NetTool.request(url, "GET")) {
+            HttpURLConnection conn = request.http();
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) return null;
+
+            InputStream inputStream = conn.getInputStream();
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, length);
+            }
+            return result.toString("UTF-8");
         }
-        return result.toString("UTF-8");
     }
 }
\ No newline at end of file
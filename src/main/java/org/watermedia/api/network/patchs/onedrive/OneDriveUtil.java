@@ -2,12 +2,12 @@ package org.watermedia.api.network.patchs.onedrive;
 
 import com.google.gson.Gson;
 import org.watermedia.api.network.NetworkAPI;
+import org.watermedia.core.tools.NetTool;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Base64;
 
 public class OneDriveUtil {
@@ -29,16 +29,17 @@ public class OneDriveUtil {
     }
 
     private static OneDriveItem getItem(String url) throws IOException {
-        URL itemURL = new URL(url);
-        HttpURLConnection connection = (HttpURLConnection) itemURL.openConnection();
+        try (NetTool.Request request = NetTool.request(url, "GET")) {
+            HttpURLConnection connection = request.http();
 
-        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-            throw new IOException("Failed to get item: " + connection.getResponseMessage());
-        }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Failed to get item: " + connection.getResponseMessage());
+            }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-        Gson gson = new Gson();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+            Gson gson = new Gson();
 
-        return gson.fromJson(reader, OneDriveItem.class);
+            return gson.fromJson(reader, OneDriveItem.class);
+        }
     }
 }
\ No newline at end of file
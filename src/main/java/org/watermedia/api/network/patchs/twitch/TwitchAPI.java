@@ -11,7 +11,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
@@ -57,41 +56,31 @@ public class TwitchAPI {
     }
 
     private static String performGetRequest(String apiUrl) throws IOException, StreamNotFound {
-        HttpURLConnection conn = initializeConnection(apiUrl, "GET");
-        conn.setRequestProperty("x-donate-to", "https://ttv.lol/donate");
-
-        int responseCode = conn.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) throw new StreamNotFound("Stream not found");
-        return (responseCode == HttpURLConnection.HTTP_OK) ?
-                new String(readAllBytes(conn.getInputStream())) :
-                new String(readAllBytes(conn.getErrorStream()));
+        try (NetTool.Request request = NetTool.request(apiUrl, "GET")) {
+            HttpURLConnection conn = request.http();
+            conn.setRequestProperty("x-donate-to", "https://ttv.lol/donate");
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) throw new StreamNotFound("Stream not found");
+            return (responseCode == HttpURLConnection.HTTP_OK) ?
+                    new String(readAllBytes(conn.getInputStream())) :
+                    new String(readAllBytes(conn.getErrorStream()));
+        }
     }
 
     private static JsonElement post(String id, boolean isVOD) throws IOException {
-        HttpURLConnection conn = NetTool.connectToHTTP(GRAPH_QL_URL, "POST");
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Client-ID", CLIENT_ID);
-        conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        try (NetTool.Request request = NetTool.request(GRAPH_QL_URL, "POST")) {
+            HttpURLConnection conn = request.http();
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Client-ID", CLIENT_ID);
+            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(buildJsonString(id, isVOD).getBytes(StandardCharsets.UTF_8));
+            }
 
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(buildJsonString(id, isVOD).getBytes(StandardCharsets.UTF_8));
+            return new JsonParser().parse(new String(readAllBytes(conn.getInputStream())));
         }
-
-        return new JsonParser().parse(new String(readAllBytes(conn.getInputStream())));
-    }
-
-    /**
-     * Initializes a connection to the given URL with the given request method.
-     * @param url The URL to connect to.
-     * @param requestMethod The request method to use.
-     * @return The initialized connection.
-     * @throws IOException If an I/O error occurs.
-     */
-    private static HttpURLConnection initializeConnection(String url, String requestMethod) throws IOException {
-        URL apiUrl = new URL(url);
-        HttpURLConnection conn = (HttpURLConnection) apiUrl.openConnection();
-        conn.setRequestMethod(requestMethod);
-        return conn;
     }
 
     /**
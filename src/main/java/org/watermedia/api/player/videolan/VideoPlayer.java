@@ -1,7 +1,9 @@
 package org.watermedia.api.player.videolan;
 
 import org.lwjgl.opengl.GL12;
+import org.watermedia.api.render.PixelBufferRing;
 import org.watermedia.api.render.RenderAPI;
+import org.watermedia.core.tools.ArgTool;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 import org.watermedia.videolan4j.factory.MediaPlayerFactory;
@@ -30,6 +32,9 @@ public class VideoPlayer extends BasePlayer implements RenderCallback, BufferFor
      * Reduced from 1000ms to 100ms for faster failure detection.
      */
     private static final long SEMAPHORE_TIMEOUT_MS = 100;
+    public static final ArgTool PIXEL_BUFFERS = new ArgTool("watermedia.player.pixelBuffers");
+    private static final int PBO_COUNT = 3;
+    private static volatile boolean pixelBuffers = !"false".equalsIgnoreCase(PIXEL_BUFFERS.value());
 
     private int width = 1;
     private int height = 1;
@@ -39,6 +44,7 @@ public class VideoPlayer extends BasePlayer implements RenderCallback, BufferFor
     private final Semaphore semaphore = new Semaphore(1);
     private final Executor renderExecutor;
     private volatile ByteBuffer[] buffers;
+    private volatile PixelBufferRing ring; // CREATED AND RELEASED ON THE RENDER THREAD
     
     /**
      * Flag to indicate a new frame is ready for upload.
@@ -79,6 +85,10 @@ public class VideoPlayer extends BasePlayer implements RenderCallback, BufferFor
 
     @Override
     public void display(MediaPlayer mediaPlayer, ByteBuffer[] nativeBuffers, BufferFormat bufferFormat) {
+        // COPY THE FRAME HERE, THE RENDER THREAD ONLY STARTS THE UPLOAD
+        PixelBufferRing ring = this.ring;
+        if (ring != null && ring.size() == size && nativeBuffers.length > 0) ring.write(nativeBuffers[0]);
+
         // Mark frame as ready - actual upload happens on render thread
         frameReady.set(true);
         
@@ -86,7 +96,15 @@ public class VideoPlayer extends BasePlayer implements RenderCallback, BufferFor
             if (!frameReady.compareAndSet(true, false)) {
                 return; // Frame already processed or no new frame
             }
-            
+
+            PixelBufferRing current = this.ring$current();
+            if (current != null && current.upload(texture, GL12.GL_RGBA, width, height, first)) {
+                first = false;
+                timeoutCount = 0;
+                return;
+            }
+
+            // NO RING OR NO FRAME ON IT, COPY STRAIGHT FROM VLC BUFFERS
             RenderAPI.bindTexture(this.texture);
             try {
                 if (semaphore.tryAcquire(SEMAPHORE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
@@ -119,6 +137,27 @@ public class VideoPlayer extends BasePlayer implements RenderCallback, BufferFor
         });
     }
 
+    /**
+     * Ring matching the current frame size, recreated when the size changes. Render thread only
+     * @return ring or null when pixel buffers are disabled or unsupported
+     */
+    private PixelBufferRing ring$current() {
+        PixelBufferRing ring = this.ring;
+        if (ring != null && ring.size() == size) return ring;
+        if (ring != null) {
+            this.ring = null;
+            ring.release();
+        }
+        if (!pixelBuffers || raw() == null) return null;
+        try {
+            this.ring = RenderAPI.createPixelBufferRing(PBO_COUNT, size);
+        } catch (Throwable e) {
+            LOGGER.error(IT, "Pixel buffers are not supported, frames are uploaded synchronously", e);
+            pixelBuffers = false;
+        }
+        return null; // RING IS EMPTY UNTIL THE NEXT FRAME
+    }
+
     @Override
     public void allocatedBuffers(ByteBuffer[] buffers) {
         this.buffers = buffers;
@@ -194,7 +233,12 @@ public class VideoPlayer extends BasePlayer implements RenderCallback, BufferFor
      */
     @Override
     public void release() {
-        renderExecutor.execute(() -> RenderAPI.deleteTexture(texture));
+        renderExecutor.execute(() -> {
+            RenderAPI.deleteTexture(texture);
+            PixelBufferRing ring = this.ring;
+            this.ring = null;
+            if (ring != null) ring.release();
+        });
         super.release();
     }
 }
\ No newline at end of file
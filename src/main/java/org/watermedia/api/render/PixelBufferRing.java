@@ -0,0 +1,196 @@
+package org.watermedia.api.render;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring of pixel buffer objects (PBO) to upload frames without stalling the render thread.
+ * Buffers are kept mapped, a producer thread copies each frame into a free buffer ({@link #write(ByteBuffer)})
+ * and the render thread only unmaps it and starts an async upload from it ({@link #upload(int, int, int, int, boolean)}).
+ * Create it with {@link RenderAPI#createPixelBufferRing(int, int)}, all methods except {@link #write(ByteBuffer)} must be called on the render thread
+ */
+public class PixelBufferRing {
+    private static final int FREE = 0; // MAPPED, WAITING FOR A FRAME
+    private static final int WRITING = 1; // PRODUCER IS COPYING A FRAME
+    private static final int FILLED = 2; // MAPPED, FRAME WAITING FOR THE UPLOAD
+    private static final int UPLOADING = 3; // UNMAPPED BY THE RENDER THREAD
+    private static final int DEAD = 4; // RELEASED OR FAILED TO MAP
+
+    private final Backend gl;
+    private final int size;
+    private final int[] buffers;
+    private final ByteBuffer[] mapped;
+    private final long[] sequence;
+    private final AtomicIntegerArray states;
+    private final AtomicLong frames = new AtomicLong();
+    private volatile boolean released;
+
+    PixelBufferRing(Backend gl, int count, int size) {
+        if (count < 2) throw new IllegalArgumentException("Ring needs at least 2 buffers");
+        this.gl = gl;
+        this.size = size;
+        this.buffers = new int[count];
+        this.mapped = new ByteBuffer[count];
+        this.sequence = new long[count];
+        this.states = new AtomicIntegerArray(count);
+        for (int i = 0; i < count; i++) {
+            this.buffers[i] = gl.create(size);
+            this.mapped[i] = gl.map(buffers[i], size);
+            if (this.mapped[i] == null) states.set(i, DEAD);
+        }
+    }
+
+    /**
+     * @return bytes of each buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies a frame into a free buffer, when all buffers are waiting for the upload the oldest frame is replaced.
+     * Safe to call from any thread
+     * @param frame pixels to copy, from its position to its limit, it is not modified
+     * @return false if the frame doesn't fit or there is no buffer available
+     */
+    public boolean write(ByteBuffer frame) {
+        if (released || frame.remaining() > size) return false;
+        int slot = this.acquire(FREE);
+        if (slot == -1) slot = this.acquire(FILLED); // RENDER THREAD IS LATE, DROP ITS OLDEST FRAME
+        if (slot == -1) return false;
+
+        ByteBuffer dest = mapped[slot].duplicate();
+        dest.clear();
+        dest.put(frame.duplicate());
+        sequence[slot] = frames.incrementAndGet();
+        states.set(slot, FILLED);
+        return true;
+    }
+
+    /**
+     * Uploads the newest written frame into the texture, older frames waiting for the upload are dropped.
+     * The upload runs asynchronously on the GPU, the buffer is mapped again for the next frames
+     * @param texture texture ID from OpenGL
+     * @param format the texel data format, see {@link RenderAPI#uploadBuffer(ByteBuffer, int, int, int, int, boolean)}
+     * @param width frame width
+     * @param height frame height
+     * @param first true to (re)allocate the texture storage
+     * @return false if there was no frame to upload
+     */
+    public boolean upload(int texture, int format, int width, int height, boolean first) {
+        int newest = -1;
+        for (int i = 0; i < buffers.length; i++) {
+            if (states.get(i) == FILLED && (newest == -1 || sequence[i] > sequence[newest])) newest = i;
+        }
+        if (newest == -1 || !states.compareAndSet(newest, FILLED, UPLOADING)) return false;
+
+        for (int i = 0; i < buffers.length; i++) {
+            if (i != newest) states.compareAndSet(i, FILLED, FREE); // STILL MAPPED, JUST DROPPED
+        }
+
+        gl.unmap(buffers[newest]);
+        gl.upload(buffers[newest], texture, format, width, height, first);
+        mapped[newest] = gl.map(buffers[newest], size); // ORPHANED, DOESN'T WAIT FOR THE UPLOAD
+        states.set(newest, mapped[newest] == null ? DEAD : FREE);
+        return true;
+    }
+
+    /**
+     * Deletes the buffers, waits for a running {@link #write(ByteBuffer)} to finish
+     */
+    public void release() {
+        released = true;
+        for (int i = 0; i < buffers.length; i++) {
+            int state;
+            do {
+                state = states.get(i);
+                if (state == WRITING) Thread.yield();
+            } while (state == WRITING || !states.compareAndSet(i, state, DEAD));
+            if (state != DEAD && state != UPLOADING) gl.unmap(buffers[i]);
+            gl.delete(buffers[i]);
+            mapped[i] = null;
+        }
+    }
+
+    /**
+     * Takes the oldest buffer in the state for writing
+     */
+    private int acquire(int state) {
+        while (true) {
+            int oldest = -1;
+            for (int i = 0; i < buffers.length; i++) {
+                if (states.get(i) == state && (oldest == -1 || sequence[i] < sequence[oldest])) oldest = i;
+            }
+            if (oldest == -1) return -1;
+            if (states.compareAndSet(oldest, state, WRITING)) return oldest;
+        }
+    }
+
+    /**
+     * GL calls used by the ring, replaceable to test it without a GL context
+     */
+    interface Backend {
+        int create(int size);
+        ByteBuffer map(int buffer, int size);
+        void unmap(int buffer);
+        void upload(int buffer, int texture, int format, int width, int height, boolean first);
+        void delete(int buffer);
+    }
+
+    static final Backend GL = new Backend() {
+        @Override
+        public int create(int size) {
+            int buffer = GL15.glGenBuffers();
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, buffer);
+            GL15.glBufferData(GL21.GL_PIXEL_UNPACK_BUFFER, size, GL15.GL_STREAM_DRAW);
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+            return buffer;
+        }
+
+        @Override
+        public ByteBuffer map(int buffer, int size) {
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, buffer);
+            GL15.glBufferData(GL21.GL_PIXEL_UNPACK_BUFFER, size, GL15.GL_STREAM_DRAW); // ORPHAN THE STORAGE THE GPU MAY BE READING
+            ByteBuffer mapped = GL30.glMapBufferRange(GL21.GL_PIXEL_UNPACK_BUFFER, 0, size, GL30.GL_MAP_WRITE_BIT | GL30.GL_MAP_INVALIDATE_BUFFER_BIT);
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+            return mapped;
+        }
+
+        @Override
+        public void unmap(int buffer) {
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, buffer);
+            GL15.glUnmapBuffer(GL21.GL_PIXEL_UNPACK_BUFFER);
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+        }
+
+        @Override
+        public void upload(int buffer, int texture, int format, int width, int height, boolean first) {
+            GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, buffer);
+
+            GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, GL11.GL_ZERO);
+            GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_PIXELS, GL11.GL_ZERO);
+            GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_ROWS, GL11.GL_ZERO);
+
+            // PIXELS ARE AN OFFSET INTO THE BOUND BUFFER
+            if (first)
+                GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, width, height, 0, format, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+            else
+                GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+
+            GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+        }
+
+        @Override
+        public void delete(int buffer) {
+            GL15.glDeleteBuffers(buffer);
+        }
+    };
+}
@@ -2,6 +2,8 @@ package org.watermedia.api.render;
 
 import org.lwjgl.system.MemoryUtil;
 import org.watermedia.api.WaterMediaAPI;
+import org.watermedia.core.tools.ArgTool;
+import org.watermedia.core.tools.DataTool;
 import org.watermedia.loaders.ILoader;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
@@ -13,6 +15,13 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.watermedia.WaterMedia.LOGGER;
 
 /**
  * RenderApi is a tool class for OpenGL rendering compatible with lwjgl 3.x
@@ -22,6 +31,30 @@ public class RenderAPI extends WaterMediaAPI {
     public static final int NONE = 0;
     public static final long NULL = 0L;
     public static final boolean ADVANCED_LWJGL = true; // LWJGL 2.9 doesn't have MemoryAllocator
+    public static final ArgTool VRAM_BUDGET = new ArgTool("watermedia.render.vramBudget");
+    private static volatile long vramBudget = DataTool.parseLongOr(VRAM_BUDGET.value(), 512L * 1024 * 1024);
+
+    // VRAM ACCOUNTING, GUARDED BY TRACKED
+    private static final Map<Integer, Tracked> TRACKED = new HashMap<>();
+    private static long vramUsage;
+    private static long vramRetry; // USAGE TO REACH BEFORE TRYING AGAIN, WHEN NOTHING COULD BE EVICTED
+    private static long drawStamp;
+
+    public static final ArgTool UPLOAD_BYTES = new ArgTool("watermedia.render.uploadBytes");
+    private static volatile long uploadBytes = DataTool.parseLongOr(UPLOAD_BYTES.value(), 16L * 1024 * 1024);
+    public static final ArgTool UPLOAD_TIME = new ArgTool("watermedia.render.uploadTime");
+    private static volatile long uploadTime = DataTool.parseLongOr(UPLOAD_TIME.value(), 4) * 1_000_000; // MS TO NANOS
+    private static final long FRAME_WINDOW = 1_000_000_000L / 60; // FRAME LENGTH WHEN beginFrame IS NEVER CALLED
+
+    // UPLOAD SCHEDULER, RENDER THREAD ONLY
+    private static boolean explicitFrames;
+    private static long frameStart;
+    private static long frameBytes;
+    private static long frameTime;
+    private static long frameQueued;
+    private static volatile long lastUploadBytes;
+    private static volatile long lastUploadTime;
+    private static volatile long lastQueuedBytes;
 
     /**
      * Creates a DirectByteBuffer unsafe using {@link org.lwjgl.system.MemoryUtil.MemoryAllocator MemoryAllocator}
@@ -163,6 +196,32 @@ public class RenderAPI extends WaterMediaAPI {
     }
 
 
+    /**
+     * Uploads a region of a whole picture buffer into an already initialized gl texture
+     * @param buffer ByteBuffer with the whole picture, rows are {@code stride} pixels long
+     * @param texture texture ID from OpenGL
+     * @param format the texel data format, see {@link #uploadBuffer(ByteBuffer, int, int, int, int, boolean)}
+     * @param stride buffer width in pixels
+     * @param x region x offset, on the buffer and the texture
+     * @param y region y offset, on the buffer and the texture
+     * @param width region width
+     * @param height region height
+     */
+    public static void uploadSubBuffer(ByteBuffer buffer, int texture, int format, int stride, int x, int y, int width, int height) {
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+
+        GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, stride);
+        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_PIXELS, x);
+        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_ROWS, y);
+
+        GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, x, y, width, height, format, GL12.GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+
+        GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, GL11.GL_ZERO);
+        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_PIXELS, GL11.GL_ZERO);
+        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_ROWS, GL11.GL_ZERO);
+    }
+
+
     /**
      * Reads the texture data into a new bytebuffer
      * @param texture opengl textur eid
@@ -178,13 +237,109 @@ public class RenderAPI extends WaterMediaAPI {
     }
 
     public static void deleteTexture(int texture) {
+        untrackTexture(texture);
         GL11.glDeleteTextures(texture);
     }
 
     public static void deleteTexture(int[] textures) {
+        for (int texture: textures) untrackTexture(texture);
         GL11.glDeleteTextures(textures);
     }
 
+    /**
+     * Accounts the VRAM of a texture, when the budget is exceeded the textures of the least recently drawn holders are evicted.
+     * Deleting the texture with {@link #deleteTexture(int)} stops accounting it. Must be called on the render thread
+     * @param texture texture ID from OpenGL
+     * @param bytes VRAM used by the texture
+     * @param holder owner of the texture, never evicted by its own uploads
+     */
+    public static void trackTexture(int texture, long bytes, TextureHolder holder) {
+        boolean exceeded;
+        synchronized (TRACKED) {
+            Tracked old = TRACKED.put(texture, new Tracked(holder, bytes));
+            if (old != null) vramUsage -= old.bytes;
+            vramUsage += bytes;
+            exceeded = vramBudget > 0 && vramUsage > vramBudget && vramUsage >= vramRetry;
+        }
+        if (exceeded) evictTextures(holder);
+    }
+
+    /**
+     * Stops accounting the texture without deleting it
+     * @param texture texture ID from OpenGL
+     */
+    public static void untrackTexture(int texture) {
+        synchronized (TRACKED) {
+            Tracked tracked = TRACKED.remove(texture);
+            if (tracked != null) vramUsage -= tracked.bytes;
+        }
+    }
+
+    /**
+     * Draw clock used to sort holders by their last draw, each call is a tick
+     * @return the new stamp
+     */
+    public static long drawStamp() {
+        return ++drawStamp; // RENDER THREAD, A LOST TICK ONLY BLURS THE ORDER
+    }
+
+    /**
+     * Evicts the textures of the least recently drawn holders until the VRAM usage fits the budget.
+     * Must be called on the render thread
+     * @param except holder kept no matter what, usually the one drawing right now
+     */
+    public static void evictTextures(TextureHolder except) {
+        List<TextureHolder> holders;
+        long budget = vramBudget;
+        synchronized (TRACKED) {
+            Map<TextureHolder, Boolean> unique = new IdentityHashMap<>();
+            for (Tracked tracked: TRACKED.values()) {
+                if (tracked.holder != except) unique.put(tracked.holder, Boolean.TRUE);
+            }
+            holders = new ArrayList<>(unique.keySet());
+        }
+        holders.sort((a, b) -> Long.compare(a.lastDrawn(), b.lastDrawn()));
+
+        long before = getVramUsage();
+        int evicted = 0;
+        for (TextureHolder holder: holders) {
+            if (getVramUsage() <= budget) break;
+            if (holder.evictTextures() > 0) evicted++;
+        }
+
+        long usage;
+        synchronized (TRACKED) {
+            usage = vramUsage;
+            vramRetry = usage > budget ? usage + budget / 8 : 0; // EVERYTHING LEFT IS PINNED, DON'T SORT ON EACH UPLOAD
+        }
+        LOGGER.debug(IT, "Evicted textures of {} holders, VRAM usage went from {} to {} bytes (budget {})", evicted, before, usage, budget);
+        if (usage > budget) LOGGER.warn(IT, "Textures takes {} bytes of VRAM and can't be evicted, over the budget of {} bytes", usage, budget);
+    }
+
+    /**
+     * @return bytes of VRAM used by the tracked textures
+     */
+    public static long getVramUsage() {
+        synchronized (TRACKED) {
+            return vramUsage;
+        }
+    }
+
+    /**
+     * Textures are evicted when the tracked VRAM goes over this, least recently drawn first.
+     * it can be also set with <code>-Dwatermedia.render.vramBudget</code>
+     * @param budget max bytes of VRAM, 0 for no limit
+     */
+    public static void setVramBudget(long budget) {
+        if (budget < 0) throw new IllegalArgumentException("VRAM budget cannot be negative");
+        vramBudget = budget;
+        synchronized (TRACKED) {
+            vramRetry = 0;
+        }
+    }
+
+    public static long getVramBudget() { return vramBudget; }
+
     public static void bindTexture(int id) {
         GL11.glBindTexture(GL11.GL_TEXTURE_2D, id);
     }
@@ -193,6 +348,113 @@ public class RenderAPI extends WaterMediaAPI {
         GL11.glBindTexture(GL11.GL_TEXTURE_2D, NONE);
     }
 
+    /**
+     * Creates a ring of pixel buffers to upload frames asynchronously, must be called on the render thread
+     * @param count buffers on the ring, 2 or 3 are enough
+     * @param size bytes of each frame
+     * @return mapped ring, release it with {@link PixelBufferRing#release()}
+     */
+    public static PixelBufferRing createPixelBufferRing(int count, int size) {
+        return new PixelBufferRing(PixelBufferRing.GL, count, size);
+    }
+
+    /**
+     * Starts a new frame of the upload scheduler, see {@link #scheduleUpload(long, Runnable)}.
+     * Optional, without it frames are assumed to last 1/60 of a second. Once called, it must be called on each frame
+     */
+    public static void beginFrame() {
+        explicitFrames = true;
+        frame$next(System.nanoTime());
+    }
+
+    /**
+     * Runs the upload on the current frame if the budget of bytes and time allows it, otherwise the upload
+     * is postponed and the caller should keep drawing the last uploaded picture and ask again on the next frame.
+     * The first upload of each frame always runs, so pictures bigger than the budget still progress.
+     * Must be called on the render thread
+     * @param bytes bytes the upload sends to the GPU
+     * @param upload task doing the upload, runs right away on this thread
+     * @return true if the upload ran, false if it was postponed
+     */
+    public static boolean scheduleUpload(long bytes, Runnable upload) {
+        long now = System.nanoTime();
+        if (!explicitFrames && now - frameStart > FRAME_WINDOW) frame$next(now);
+
+        boolean first = frameBytes == 0 && frameTime == 0;
+        if (!first && (frameBytes + bytes > uploadBytes || frameTime >= uploadTime)) {
+            frameQueued += bytes;
+            return false;
+        }
+
+        upload.run();
+        frameBytes += bytes;
+        frameTime += System.nanoTime() - now;
+        return true;
+    }
+
+    private static void frame$next(long now) {
+        lastUploadBytes = frameBytes;
+        lastUploadTime = frameTime;
+        lastQueuedBytes = frameQueued;
+        frameStart = now;
+        frameBytes = 0;
+        frameTime = 0;
+        frameQueued = 0;
+    }
+
+    /**
+     * @return bytes uploaded by the scheduler on the last frame
+     */
+    public static long getUploadedBytes() { return lastUploadBytes; }
+
+    /**
+     * @return nanoseconds spent uploading on the last frame
+     */
+    public static long getUploadTime() { return lastUploadTime; }
+
+    /**
+     * @return bytes of the uploads postponed on the last frame, waiting for the next ones
+     */
+    public static long getQueuedBytes() { return lastQueuedBytes; }
+
+    /**
+     * Changes the upload budget of each frame, it can be also set with <code>-Dwatermedia.render.uploadBytes</code>
+     * and <code>-Dwatermedia.render.uploadTime</code> (milliseconds)
+     * @param bytes max bytes uploaded per frame
+     * @param nanos max time spent uploading per frame
+     */
+    public static void setUploadBudget(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) throw new IllegalArgumentException("Upload budget must be positive");
+        uploadBytes = bytes;
+        uploadTime = nanos;
+    }
+
+    /**
+     * Owner of tracked textures, see {@link #trackTexture(int, long, TextureHolder)}
+     */
+    public interface TextureHolder {
+        /**
+         * @return stamp of the last draw, see {@link #drawStamp()}
+         */
+        long lastDrawn();
+
+        /**
+         * Deletes the textures that can be uploaded again on the next draw, called on the render thread
+         * @return freed bytes of VRAM, 0 if nothing could be evicted
+         */
+        long evictTextures();
+    }
+
+    private static final class Tracked {
+        private final TextureHolder holder;
+        private final long bytes;
+
+        private Tracked(TextureHolder holder, long bytes) {
+            this.holder = holder;
+            this.bytes = bytes;
+        }
+    }
+
     @Override
     public Priority priority() {
         return Priority.HIGH;
@@ -0,0 +1,309 @@
+package org.watermedia.core.tools;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static org.watermedia.WaterMedia.LOGGER;
+
+/**
+ * Media format detection, first by the signature of the content (magic bytes)
+ * then by the MIME type or the extension when the signature is unknown
+ */
+public class FormatTool {
+    private static final Marker IT = MarkerManager.getMarker("FormatTool");
+    public static final int SNIFF_SIZE = 512; // ENOUGH FOR ALL SIGNATURES, INCLUDING APNG CHUNKS AND EBML DOCTYPE
+    private static final int TS_PACKET = 188;
+
+    private static final Map<String, Format> EXTENSIONS = new HashMap<>();
+    private static final Map<String, Format> MIMETYPES = new HashMap<>();
+    // SERVERS SENDS THEM WHEN THEY DON'T KNOW WHAT THE FILE IS, THE EXTENSION SAYS MORE
+    private static final Set<String> GENERIC_MIMETYPES = new HashSet<>(Arrays.asList(
+            "application/octet-stream", "binary/octet-stream", "application/binary", "application/unknown",
+            "application/force-download", "application/x-download", "content/unknown", "unknown/unknown", "text/plain"));
+
+    static {
+        for (Format format: Format.values()) {
+            for (String extension: format.extensions) EXTENSIONS.put(extension, format);
+            for (String mimetype: format.mimetypes) MIMETYPES.put(mimetype, format);
+        }
+    }
+
+    public enum Kind { IMAGE, VIDEO, AUDIO, PLAYLIST, OTHER, UNKNOWN }
+
+    public enum Format {
+        // IMAGES
+        GIF(Kind.IMAGE, new String[] { "gif" }, "image/gif"),
+        PNG(Kind.IMAGE, new String[] { "png" }, "image/png"),
+        APNG(Kind.IMAGE, new String[] { "apng" }, "image/apng", "image/vnd.mozilla.apng"),
+        JPEG(Kind.IMAGE, new String[] { "jpg", "jpeg", "jpe", "jfif" }, "image/jpeg", "image/jpg", "image/pjpeg"),
+        WEBP(Kind.IMAGE, new String[] { "webp" }, "image/webp"),
+        BMP(Kind.IMAGE, new String[] { "bmp" }, "image/bmp", "image/x-ms-bmp"),
+        AVIF(Kind.IMAGE, new String[] { "avif" }, "image/avif", "image/avif-sequence"),
+        HEIF(Kind.IMAGE, new String[] { "heic", "heif" }, "image/heic", "image/heif", "image/heic-sequence", "image/heif-sequence"),
+        ANY_IMAGE(Kind.IMAGE, new String[0]),
+
+        // VIDEOS
+        MP4(Kind.VIDEO, new String[] { "mp4", "m4v", "mov", "3gp" }, "video/mp4", "video/quicktime", "video/3gpp"),
+        MKV(Kind.VIDEO, new String[] { "mkv" }, "video/x-matroska", "audio/x-matroska"),
+        WEBM(Kind.VIDEO, new String[] { "webm" }, "video/webm", "audio/webm"),
+        TS(Kind.VIDEO, new String[] { "ts", "m2ts", "mts" }, "video/mp2t"),
+        MPEG(Kind.VIDEO, new String[] { "mpg", "mpeg" }, "video/mpeg"),
+        AVI(Kind.VIDEO, new String[] { "avi" }, "video/x-msvideo", "video/avi"),
+        FLV(Kind.VIDEO, new String[] { "flv" }, "video/x-flv"),
+        WMV(Kind.VIDEO, new String[] { "wmv", "asf" }, "video/x-ms-wmv", "video/x-ms-asf"),
+        OGV(Kind.VIDEO, new String[] { "ogv" }, "video/ogg"),
+        ANY_VIDEO(Kind.VIDEO, new String[0]),
+
+        // AUDIOS
+        MP3(Kind.AUDIO, new String[] { "mp3" }, "audio/mpeg", "audio/mp3"),
+        AAC(Kind.AUDIO, new String[] { "aac" }, "audio/aac", "audio/x-aac"),
+        M4A(Kind.AUDIO, new String[] { "m4a" }, "audio/mp4", "audio/x-m4a"),
+        OGG(Kind.AUDIO, new String[] { "ogg", "oga", "opus" }, "audio/ogg", "audio/opus", "application/ogg"),
+        FLAC(Kind.AUDIO, new String[] { "flac" }, "audio/flac", "audio/x-flac"),
+        WAV(Kind.AUDIO, new String[] { "wav" }, "audio/wav", "audio/x-wav", "audio/wave"),
+        WMA(Kind.AUDIO, new String[] { "wma" }, "audio/x-ms-wma"),
+        ANY_AUDIO(Kind.AUDIO, new String[0]),
+
+        // PLAYLISTS
+        M3U8(Kind.PLAYLIST, new String[] { "m3u8", "m3u" }, "application/vnd.apple.mpegurl", "application/x-mpegurl", "audio/mpegurl", "audio/x-mpegurl"),
+
+        // DECLARED AS SOMETHING ELSE (HTML, JSON...)
+        ANY_OTHER(Kind.OTHER, new String[0]),
+
+        UNKNOWN(Kind.UNKNOWN, new String[0]);
+
+        public final Kind kind;
+        private final String[] extensions;
+        private final String[] mimetypes;
+
+        Format(Kind kind, String[] extensions, String... mimetypes) {
+            this.kind = kind;
+            this.extensions = extensions;
+            this.mimetypes = mimetypes;
+        }
+
+        public boolean isImage() {
+            return kind == Kind.IMAGE;
+        }
+
+        /**
+         * @return true if the format must be played by a player (video, audio or playlist)
+         */
+        public boolean isMedia() {
+            return kind == Kind.VIDEO || kind == Kind.AUDIO || kind == Kind.PLAYLIST;
+        }
+
+        public boolean isKnown() {
+            return this != UNKNOWN;
+        }
+    }
+
+    /**
+     * Detects the format of a response, signature takes precedence over the MIME type
+     * and the MIME type over the extension of the URI. Only generic MIME types (octet-stream and alike) lets the extension decide
+     * @param in stream positioned at the start of the content, must support mark
+     * @param mimetype Content-Type of the response, can be null
+     * @param uri address of the content, can be null
+     * @return detected format or {@link Format#UNKNOWN}
+     */
+    public static Format detect(InputStream in, String mimetype, URI uri) throws IOException {
+        Format signature = sniff(in);
+        Format declared = byMimeType(mimetype);
+        if (signature.isKnown()) {
+            if (declared.isKnown() && declared.kind != signature.kind) {
+                LOGGER.debug(IT, "Content-Type '{}' of '{}' does not match its signature ({})", mimetype, uri, signature);
+            }
+            return signature;
+        }
+        return declared.isKnown() || uri == null ? declared : byExtension(uri);
+    }
+
+    /**
+     * Reads the signature of the stream, the stream is reset to where it was
+     * @param in stream to sniff, must support mark
+     * @return detected format or {@link Format#UNKNOWN}
+     */
+    public static Format sniff(InputStream in) throws IOException {
+        if (!in.markSupported()) throw new IllegalArgumentException("Stream does not support mark");
+        byte[] head = new byte[SNIFF_SIZE];
+        in.mark(SNIFF_SIZE);
+        int length = 0;
+        try {
+            int read;
+            while (length < head.length && (read = in.read(head, length, head.length - length)) != -1) {
+                length += read;
+            }
+        } finally {
+            in.reset();
+        }
+        return sniff(head, 0, length);
+    }
+
+    /**
+     * Reads the signature of the buffer, position is not changed
+     * @param data buffer to sniff
+     * @return detected format or {@link Format#UNKNOWN}
+     */
+    public static Format sniff(ByteBuffer data) {
+        byte[] head = new byte[Math.min(data.remaining(), SNIFF_SIZE)];
+        data.duplicate().get(head);
+        return sniff(head, 0, head.length);
+    }
+
+    public static Format sniff(byte[] data, int offset, int length) {
+        if (length < 4) return Format.UNKNOWN;
+        int b0 = data[offset] & 0xFF, b1 = data[offset + 1] & 0xFF;
+
+        // IMAGES
+        if (matches(data, offset, length, 0, "GIF87a") || matches(data, offset, length, 0, "GIF89a")) return Format.GIF;
+        if (matches(data, offset, length, 0, 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n')) return sniff$apng(data, offset, length) ? Format.APNG : Format.PNG;
+        if (b0 == 0xFF && b1 == 0xD8 && (data[offset + 2] & 0xFF) == 0xFF) return Format.JPEG;
+        if (matches(data, offset, length, 0, "RIFF")) {
+            if (matches(data, offset, length, 8, "WEBP")) return Format.WEBP;
+            if (matches(data, offset, length, 8, "WAVE")) return Format.WAV;
+            if (matches(data, offset, length, 8, "AVI ")) return Format.AVI;
+            return Format.UNKNOWN;
+        }
+
+        // CONTAINERS
+        if (matches(data, offset, length, 4, "ftyp")) return sniff$ftyp(data, offset, length);
+        if (matches(data, offset, length, 0, 0x1A, 0x45, 0xDF, 0xA3)) return sniff$contains(data, offset, length, "webm") ? Format.WEBM : Format.MKV;
+        if (matches(data, offset, length, 0, "OggS")) return sniff$contains(data, offset, length, "theora") ? Format.OGV : Format.OGG;
+        if (matches(data, offset, length, 0, "fLaC")) return Format.FLAC;
+        if (matches(data, offset, length, 0, 'F', 'L', 'V', 0x01)) return Format.FLV;
+        if (matches(data, offset, length, 0, 0x30, 0x26, 0xB2, 0x75, 0x8E, 0x66, 0xCF, 0x11)) return Format.WMV;
+        if (matches(data, offset, length, 0, 0x00, 0x00, 0x01, 0xBA) || matches(data, offset, length, 0, 0x00, 0x00, 0x01, 0xB3)) return Format.MPEG;
+        if (sniff$ts(data, offset, length, 0) || sniff$ts(data, offset, length, 4)) return Format.TS; // M2TS HAS A 4 BYTES TIMECODE
+        if (sniff$playlist(data, offset, length)) return Format.M3U8;
+
+        // AUDIO STREAMS
+        if (matches(data, offset, length, 0, "ID3")) return Format.MP3;
+        if (b0 == 0xFF && (b1 & 0xF6) == 0xF0) return Format.AAC; // ADTS, LAYER 0
+        if (b0 == 0xFF && (b1 & 0xE0) == 0xE0 && (b1 & 0x06) != 0) return Format.MP3; // MPEG FRAME SYNC
+
+        // WEAK SIGNATURES GOES LAST
+        if (matches(data, offset, length, 0, "BM") && length >= 14 && matches(data, offset, length, 6, 0, 0, 0, 0)) return Format.BMP;
+
+        return Format.UNKNOWN;
+    }
+
+    /**
+     * O(1) lookup of the extension of the path
+     * @param uri address to check
+     * @return format of the extension or {@link Format#UNKNOWN}
+     */
+    public static Format byExtension(URI uri) {
+        return byExtension(uri.getPath());
+    }
+
+    public static Format byExtension(String path) {
+        if (path == null) return Format.UNKNOWN;
+        int dot = path.lastIndexOf('.');
+        if (dot == -1 || dot < path.lastIndexOf('/') || dot < path.lastIndexOf('\\')) return Format.UNKNOWN;
+        Format format = EXTENSIONS.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return format != null ? format : Format.UNKNOWN;
+    }
+
+    /**
+     * Lookup of the MIME type, parameters are ignored
+     * @param mimetype Content-Type value, can be null
+     * @return format of the MIME type, generic formats for unknown image/video/audio types, {@link Format#ANY_OTHER}
+     * for any other declared type or {@link Format#UNKNOWN} when there is no type or it is generic
+     */
+    public static Format byMimeType(String mimetype) {
+        if (mimetype == null) return Format.UNKNOWN;
+        int params = mimetype.indexOf(';');
+        String type = (params != -1 ? mimetype.substring(0, params) : mimetype).trim().toLowerCase(Locale.ROOT);
+        Format format = MIMETYPES.get(type);
+        if (format != null) return format;
+        if (type.startsWith("image/")) return Format.ANY_IMAGE;
+        if (type.startsWith("video/")) return Format.ANY_VIDEO;
+        if (type.startsWith("audio/")) return Format.ANY_AUDIO;
+        if (type.isEmpty() || GENERIC_MIMETYPES.contains(type)) return Format.UNKNOWN;
+        return Format.ANY_OTHER;
+    }
+
+    private static boolean matches(byte[] data, int offset, int length, int at, String signature) {
+        if (at + signature.length() > length) return false;
+        for (int i = 0; i < signature.length(); i++) {
+            if (data[offset + at + i] != (byte) signature.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(byte[] data, int offset, int length, int at, int... signature) {
+        if (at + signature.length > length) return false;
+        for (int i = 0; i < signature.length; i++) {
+            if (data[offset + at + i] != (byte) signature[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean sniff$contains(byte[] data, int offset, int length, String text) {
+        for (int i = 0; i + text.length() <= length; i++) {
+            if (matches(data, offset, length, i, text)) return true;
+        }
+        return false;
+    }
+
+    // ANIMATED PNGS HAVE AN acTL CHUNK BEFORE THE FIRST IDAT
+    private static boolean sniff$apng(byte[] data, int offset, int length) {
+        int at = 8;
+        while (at + 8 <= length) {
+            if (matches(data, offset, length, at + 4, "acTL")) return true;
+            if (matches(data, offset, length, at + 4, "IDAT")) return false;
+            long size = ((data[offset + at] & 0xFFL) << 24) | ((data[offset + at + 1] & 0xFF) << 16) | ((data[offset + at + 2] & 0xFF) << 8) | (data[offset + at + 3] & 0xFF);
+            if (size > length) return false;
+            at += 12 + (int) size; // LENGTH + TYPE + DATA + CRC
+        }
+        return false;
+    }
+
+    // ISO BASE MEDIA FILES, THE MAJOR BRAND TELLS PICTURES (HEIF, AVIF) FROM VIDEOS
+    private static Format sniff$ftyp(byte[] data, int offset, int length) {
+        if (length < 12) return Format.MP4;
+        switch (new String(data, offset + 8, 4, StandardCharsets.US_ASCII)) {
+            case "avif": case "avis": return Format.AVIF;
+            case "heic": case "heix": case "heim": case "heis": case "hevc": case "hevx": return Format.HEIF;
+            case "mif1": case "msf1": // GENERIC HEIF, THE COMPATIBLE BRANDS TELLS THE CODEC
+                return sniff$brand(data, offset, length, "avif") || sniff$brand(data, offset, length, "avis") ? Format.AVIF : Format.HEIF;
+            case "M4A ": case "M4B ": return Format.M4A;
+            default: return Format.MP4;
+        }
+    }
+
+    // COMPATIBLE BRANDS GOES AFTER THE MAJOR BRAND AND ITS VERSION, UNTIL THE END OF THE BOX
+    private static boolean sniff$brand(byte[] data, int offset, int length, String brand) {
+        long size = ((data[offset] & 0xFFL) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        int end = (int) Math.min(size, length);
+        for (int at = 16; at + 4 <= end; at += 4) {
+            if (matches(data, offset, length, at, brand)) return true;
+        }
+        return false;
+    }
+
+    // TWO PACKETS IN A ROW, A SINGLE SYNC BYTE IS JUST A 'G'
+    private static boolean sniff$ts(byte[] data, int offset, int length, int at) {
+        int stride = TS_PACKET + at;
+        if (at + stride >= length) return false;
+        return data[offset + at] == 0x47 && data[offset + at + stride] == 0x47;
+    }
+
+    private static boolean sniff$playlist(byte[] data, int offset, int length) {
+        int at = matches(data, offset, length, 0, 0xEF, 0xBB, 0xBF) ? 3 : 0; // UTF-8 BOM
+        while (at < length && Character.isWhitespace(data[offset + at])) at++;
+        return matches(data, offset, length, at, "#EXTM3U");
+    }
+}
@@ -4,11 +4,18 @@ import org.watermedia.api.image.decoders.GifDecoder;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 
+import javax.imageio.stream.ImageInputStreamImpl;
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -16,6 +23,22 @@ import static org.watermedia.WaterMedia.LOGGER;
 
 public class IOTool {
     private static final Marker IT = MarkerManager.getMarker("Tools");
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER; // JAVA 9+, JAVA 8 USES THE BUFFER CLEANER
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> clazz = Class.forName("sun.misc.Unsafe");
+            Field field = clazz.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception ignored) {}
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
 
     public static boolean rmdirs(Path path) {
         return rmdirs(path.toFile());
@@ -60,6 +83,55 @@ public class IOTool {
         return null;
     }
 
+    /**
+     * Reads a file into a buffer, files bigger than the threshold are memory-mapped instead of copied into the heap
+     * @param path file to read
+     * @param mapThreshold minimum size in bytes to map the file, smaller files are read directly
+     * @return buffer with the whole file, mapped buffers are read-only and should be released with {@link #unmap(ByteBuffer)}
+     * @throws IOException when the file cannot be read or mapped
+     */
+    public static ByteBuffer readBuffer(Path path, long mapThreshold) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("File is too big to be read: " + size + " bytes");
+            if (size >= mapThreshold) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) throw new EOFException("File was truncated while reading");
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Releases a mapped file right away instead of waiting for the GC, Windows cannot delete or replace mapped files.
+     * Any access to the buffer or its views after this crashes the JVM, only call it when nothing uses them anymore
+     * @param buffer buffer returned by {@link FileChannel#map(FileChannel.MapMode, long, long)}, other buffers are ignored
+     * @return true if the file was unmapped
+     */
+    public static boolean unmap(ByteBuffer buffer) {
+        if (!(buffer instanceof MappedByteBuffer)) return false;
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object clean = cleaner.invoke(buffer);
+                if (clean == null) return false;
+                clean.getClass().getMethod("clean").invoke(clean);
+            }
+            return true;
+        } catch (Exception e) {
+            LOGGER.debug(IT, "Failed to unmap buffer, it is released by the GC", e);
+            return false;
+        }
+    }
+
     public static boolean writeData(File to, byte[] data) {
         return writeData(to.toPath(), data);
     }
@@ -184,4 +256,96 @@ public class IOTool {
 //        @Override
 //        public void setCompleted(long l) {}
 //    }
-}
\ No newline at end of file
+
+    /**
+     * InputStream over the remaining bytes of a buffer, source buffer position is not touched
+     */
+    public static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private int mark;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.slice();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mark = buffer.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.position(mark);
+        }
+    }
+
+    /**
+     * ImageInputStream over the remaining bytes of a buffer, ImageIO readers can seek it without any copy
+     */
+    public static final class ByteBufferImageInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer buffer;
+
+        public ByteBufferImageInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.slice();
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= buffer.limit()) return -1;
+            return buffer.get((int) streamPos++) & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            if (off < 0 || len < 0 || off + len > b.length) throw new IndexOutOfBoundsException();
+            bitOffset = 0;
+            if (len == 0) return 0;
+            if (streamPos >= buffer.limit()) return -1;
+
+            len = (int) Math.min(len, buffer.limit() - streamPos);
+            buffer.position((int) streamPos);
+            buffer.get(b, off, len);
+            streamPos += len;
+            return len;
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+    }
+}
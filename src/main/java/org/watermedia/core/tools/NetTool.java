@@ -1,14 +1,46 @@
 package org.watermedia.core.tools;
 
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.watermedia.WaterMedia.LOGGER;
 
 public class NetTool {
+    private static final Marker IT = MarkerManager.getMarker("NetTool");
     public static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/134.0.0.0 Safari/537.36 Edg/134.0.0.0";
 
+    // TRANSPORT
+    public static final ArgTool MAX_PER_HOST = new ArgTool("watermedia.net.maxPerHost");
+    private static final int MAX_DRAIN = 64 * 1024; // BIGGER LEFTOVERS ARE CHEAPER TO DROP THAN TO DRAIN
+    private static final long HOST_TIMEOUT = 60;
+    private static final Map<String, Semaphore> HOSTS = new ConcurrentHashMap<>();
+    private static volatile CountingSocketFactory sslFactory; // WRAPS THE FACTORY INSTALLED RIGHT NOW, REPLACED WHEN IT CHANGES
+    private static volatile int maxPerHost = (int) Math.max(1, DataTool.parseLongOr(MAX_PER_HOST.value(), 6));
+
+    // COUNTERS
+    private static final LongAdder REQUESTS = new LongAdder();
+    private static final LongAdder SECURE_REQUESTS = new LongAdder();
+    private static final LongAdder HANDSHAKES = new LongAdder();
+    private static final LongAdder SOCKETS = new LongAdder();
+    private static final LongAdder QUEUE_WAIT = new LongAdder();
+
     public static URLConnection connectToAny(URI uri, String method) throws IOException {
         return connectToAny(uri.toURL(), method);
     }
@@ -38,4 +70,195 @@ public class NetTool {
     public static HttpURLConnection connectToHTTP(String url, String method) throws IOException {
         return connectToHTTP(new URL(url), method);
     }
-}
\ No newline at end of file
+
+    /**
+     * Opens a request limited by the concurrent requests per host, the connection is returned to the
+     * keep-alive pool when the request is closed, use it with try-with-resources
+     * @param uri address, non-HTTP addresses are not limited
+     * @param method HTTP method
+     * @return request holding the connection
+     * @throws IOException if the connection cannot be opened or the thread was interrupted while waiting
+     */
+    public static Request request(URI uri, String method) throws IOException {
+        return request(uri.toURL(), method);
+    }
+
+    public static Request request(String url, String method) throws IOException {
+        return request(new URL(url), method);
+    }
+
+    public static Request request(URL url, String method) throws IOException {
+        URLConnection conn = connectToAny(url, method);
+        if (!(conn instanceof HttpURLConnection)) return new Request(conn, null);
+        conn.setRequestProperty("Cache-Control", "no-cache"); // SAME HEADERS AS connectToHTTP
+
+        Semaphore permits = HOSTS.computeIfAbsent(url.getHost().toLowerCase() + ":" + url.getPort(), k -> new Semaphore(maxPerHost, true));
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(HOST_TIMEOUT, TimeUnit.SECONDS)) {
+                throw new IOException("Timed out waiting for a free connection to " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a free connection to " + url.getHost(), e);
+        }
+        QUEUE_WAIT.add(System.nanoTime() - start);
+
+        REQUESTS.increment();
+        if (conn instanceof HttpsURLConnection) {
+            HttpsURLConnection https = (HttpsURLConnection) conn;
+            https.setSSLSocketFactory(counting(https.getSSLSocketFactory()));
+            SECURE_REQUESTS.increment();
+        }
+        return new Request(conn, permits);
+    }
+
+    /**
+     * Wraps the socket factory the connection got, trust stores installed by mods or launchers are kept.
+     * The wrapper is shared while the factory stays the same, keep-alive only reuses connections of the same factory instance
+     */
+    private static SSLSocketFactory counting(SSLSocketFactory current) {
+        CountingSocketFactory factory = sslFactory;
+        if (factory == null || factory.delegate != current) {
+            sslFactory = factory = new CountingSocketFactory(current);
+        }
+        return factory;
+    }
+
+    /**
+     * Changes the concurrent requests allowed per host, only applies to hosts not requested yet
+     * it can be also set with <code>-Dwatermedia.net.maxPerHost</code>
+     * @param max concurrent requests
+     */
+    public static void setMaxPerHost(int max) {
+        if (max <= 0) throw new IllegalArgumentException("Max requests per host must be positive");
+        maxPerHost = max;
+    }
+
+    public static int getMaxPerHost() { return maxPerHost; }
+
+    /**
+     * @return requests opened using {@link #request(URL, String)}
+     */
+    public static long getRequests() { return REQUESTS.sum(); }
+
+    /**
+     * @return TLS handshakes done by {@link #request(URL, String)}, including resumed sessions
+     */
+    public static long getHandshakes() { return HANDSHAKES.sum(); }
+
+    /**
+     * @return HTTPS requests of {@link #request(URL, String)} served by an already open connection
+     */
+    public static long getReuses() { return Math.max(0, SECURE_REQUESTS.sum() - SOCKETS.sum()); }
+
+    /**
+     * @return total time spent waiting for a free connection to a host, in milliseconds
+     */
+    public static long getQueueWait() { return TimeUnit.NANOSECONDS.toMillis(QUEUE_WAIT.sum()); }
+
+    public static final class Request implements AutoCloseable {
+        private final URLConnection conn;
+        private final Semaphore permits;
+        private boolean taken;
+        private boolean closed;
+
+        private Request(URLConnection conn, Semaphore permits) {
+            this.conn = conn;
+            this.permits = permits;
+        }
+
+        /**
+         * @return connection to send the request with, once taken the request is considered sent
+         * and {@link #close()} reads what was left of the response
+         */
+        public URLConnection connection() {
+            taken = true;
+            return conn;
+        }
+
+        /**
+         * @return connection as HTTP connection
+         * @throws ClassCastException if the address was not HTTP
+         * @see #connection()
+         */
+        public HttpURLConnection http() {
+            HttpURLConnection http = (HttpURLConnection) conn;
+            taken = true;
+            return http;
+        }
+
+        public boolean isHttp() {
+            return conn instanceof HttpURLConnection;
+        }
+
+        /**
+         * Drains what was left of the response and gives the connection back to the keep-alive pool
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                if (!taken) return; // NOTHING TO GIVE BACK, AND ASKING FOR THE STREAM WOULD CONNECT IT
+                if (conn instanceof HttpURLConnection) {
+                    HttpURLConnection http = (HttpURLConnection) conn;
+                    InputStream in;
+                    try {
+                        in = http.getInputStream();
+                    } catch (IOException e) {
+                        in = http.getErrorStream();
+                    }
+                    if (in != null && (http.getContentLengthLong() > MAX_DRAIN || !drain(in))) {
+                        in.close();
+                        http.disconnect();
+                    }
+                } else {
+                    conn.getInputStream().close();
+                }
+            } catch (Exception e) {
+                LOGGER.debug(IT, "Failed to close connection to '{}'", conn.getURL(), e);
+            } finally {
+                if (permits != null) permits.release();
+            }
+        }
+
+        private static boolean drain(InputStream in) throws IOException {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[8192];
+                int total = 0;
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    total += read;
+                    if (total > MAX_DRAIN) return false;
+                }
+                return true;
+            }
+        }
+    }
+
+    private static final class CountingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        private CountingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        private Socket count(Socket socket) {
+            SOCKETS.increment();
+            if (socket instanceof SSLSocket) {
+                ((SSLSocket) socket).addHandshakeCompletedListener(event -> HANDSHAKES.increment());
+            }
+            return socket;
+        }
+
+        @Override public String[] getDefaultCipherSuites() { return delegate.getDefaultCipherSuites(); }
+        @Override public String[] getSupportedCipherSuites() { return delegate.getSupportedCipherSuites(); }
+        @Override public Socket createSocket() throws IOException { return count(delegate.createSocket()); }
+        @Override public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException { return count(delegate.createSocket(s, host, port, autoClose)); }
+        @Override public Socket createSocket(String host, int port) throws IOException { return count(delegate.createSocket(host, port)); }
+        @Override public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException { return count(delegate.createSocket(host, port, localHost, localPort)); }
+        @Override public Socket createSocket(InetAddress host, int port) throws IOException { return count(delegate.createSocket(host, port)); }
+        @Override public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException { return count(delegate.createSocket(address, port, localAddress, localPort)); }
+    }
+}
@@ -0,0 +1,318 @@
+package org.watermedia.api.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.watermedia.loaders.ILoader;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to verify the on-disk index of {@link CacheAPI}: journal replay, torn tails,
+ * rotation after a failed compaction and the migration of the legacy index.
+ * Also verifies the disk budget: eviction order by rank, hit bonuses and evictions surviving a restart
+ */
+public class CacheAPITest {
+    private static final URI A = URI.create("https://example.com/a.png");
+    private static final URI B = URI.create("https://example.com/b.png");
+    private static final URI C = URI.create("https://example.com/c.png");
+    private static final URI D = URI.create("https://example.com/d.png");
+    private static final URI E = URI.create("https://example.com/e.png");
+    private static final URI[] ALL = { A, B, C, D, E };
+    private static final int SIZE = 300;
+
+    @TempDir
+    Path temp;
+    private ILoader loader;
+    private CacheAPI api;
+    private File dir;
+    private long maxBytes;
+    private long maxEntries;
+
+    @BeforeEach
+    public void setup() {
+        loader = new TestLoader(temp);
+        dir = temp.resolve("cache/pictures").toFile();
+        maxBytes = CacheAPI.getMaxBytes();
+        maxEntries = CacheAPI.getMaxEntries();
+    }
+
+    @AfterEach
+    public void teardown() {
+        if (api != null) api.release();
+        api = null;
+        CacheAPI.setDiskBudget(maxBytes, maxEntries);
+    }
+
+    @Test
+    public void testJournalReplay() throws Exception {
+        start();
+        CacheAPI.updateEntry(new CacheAPI.Entry(A, "a1", 1, 0));
+        CacheAPI.updateEntry(new CacheAPI.Entry(B, "b1", 2, 0));
+        CacheAPI.updateEntry(new CacheAPI.Entry(A, "a2", 3, 0));
+        CacheAPI.deleteEntry(B);
+
+        // CRASH: ONLY THE JOURNAL SURVIVES
+        byte[] journal = read("index.log");
+        restart();
+        Files.delete(file("index.dat").toPath());
+        write("index.log", journal);
+
+        start();
+        assertEquals(1, CacheAPI.getEntryCount());
+        assertEquals("a2", CacheAPI.getEntry(A).getTag());
+        assertEquals(3, CacheAPI.getEntry(A).getTime());
+        assertNull(CacheAPI.getEntry(B));
+    }
+
+    @Test
+    public void testTornTail() throws Exception {
+        start();
+        CacheAPI.updateEntry(new CacheAPI.Entry(A, "a1", 1, 0));
+        byte[] first = read("index.log");
+        CacheAPI.updateEntry(new CacheAPI.Entry(B, "b1", 2, 0));
+        byte[] both = read("index.log");
+        restart();
+        Files.delete(file("index.dat").toPath());
+
+        // CRASH IN THE MIDDLE OF THE SECOND RECORD
+        write("index.log", Arrays.copyOf(both, first.length + (both.length - first.length) / 2));
+        start();
+        assertNotNull(CacheAPI.getEntry(A));
+        assertNull(CacheAPI.getEntry(B));
+
+        // RECORDS APPENDED AFTER THE TEAR ARE READ ON THE NEXT START
+        CacheAPI.updateEntry(new CacheAPI.Entry(C, "c1", 3, 0));
+        byte[] journal = read("index.log");
+        byte[] snapshot = read("index.dat");
+        restart();
+        write("index.log", journal);
+        write("index.dat", snapshot);
+
+        start();
+        assertNotNull(CacheAPI.getEntry(A));
+        assertNull(CacheAPI.getEntry(B));
+        assertEquals("c1", CacheAPI.getEntry(C).getTag());
+    }
+
+    @Test
+    public void testTornTailWithoutRecords() throws Exception {
+        start();
+        CacheAPI.updateEntry(new CacheAPI.Entry(A, "a1", 1, 0));
+        restart(); // SNAPSHOT HAS A
+
+        for (int length: new int[] { 5, 8 + 3 }) { // TORN HEADER, TORN FIRST RECORD
+            byte[] header = Arrays.copyOf(read("index.log"), 8);
+            byte[] torn = Arrays.copyOf(header, length);
+            for (int i = 8; i < length; i++) torn[i] = 1; // OP_PUT AND GARBAGE
+            write("index.log", torn);
+
+            start();
+            CacheAPI.updateEntry(new CacheAPI.Entry(C, "c" + length, 3, 0));
+            byte[] journal = read("index.log");
+            byte[] snapshot = read("index.dat");
+            restart();
+            write("index.log", journal);
+            write("index.dat", snapshot);
+
+            start();
+            assertNotNull(CacheAPI.getEntry(A));
+            assertEquals("c" + length, CacheAPI.getEntry(C).getTag());
+            restart();
+        }
+    }
+
+    @Test
+    public void testRotationAfterFailedCompaction() throws Exception {
+        start();
+        CacheAPI.updateEntry(new CacheAPI.Entry(A, "a1", 1, 0));
+        byte[] journalA = read("index.log");
+        restart();
+        Files.delete(file("index.dat").toPath());
+        Files.delete(file("index.log").toPath());
+
+        start(); // EMPTY
+        assertEquals(0, CacheAPI.getEntryCount());
+
+        // A PREVIOUS COMPACTION LEFT ITS JOURNAL, AND THIS ONE CAN'T WRITE THE SNAPSHOT EITHER
+        write("index.log.old", journalA);
+        assertTrue(file("index.dat.tmp").mkdir());
+        CacheAPI.updateEntry(new CacheAPI.Entry(B, "b1", 2, 0));
+        restart();
+        assertTrue(file("index.log.old").exists());
+        assertTrue(file("index.dat.tmp").delete());
+
+        start();
+        assertEquals("a1", CacheAPI.getEntry(A).getTag());
+        assertEquals("b1", CacheAPI.getEntry(B).getTag());
+        assertFalse(file("index.log.old").exists());
+    }
+
+    @Test
+    public void testLegacyMigration() throws Exception {
+        assertTrue(dir.mkdirs());
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file("index").toPath())))) {
+            out.writeInt(2);
+            out.writeUTF(A.toString());
+            out.writeUTF("a1");
+            out.writeLong(1);
+            out.writeLong(10);
+            out.writeUTF(B.toString());
+            out.writeUTF("");
+            out.writeLong(2);
+            out.writeLong(20);
+        }
+
+        start();
+        assertEquals("a1", CacheAPI.getEntry(A).getTag());
+        assertEquals(10, CacheAPI.getEntry(A).getExpireTime());
+        assertNull(CacheAPI.getEntry(B).getTag());
+        assertFalse(file("index").exists());
+        assertTrue(file("index.dat").exists());
+
+        restart();
+        start();
+        assertEquals(2, CacheAPI.getEntryCount());
+        assertEquals(20, CacheAPI.getEntry(B).getExpireTime());
+    }
+
+    @Test
+    public void testBytesBudgetEvictsLowestRankFirst() throws Exception {
+        start();
+        save(ALL);
+        assertEquals(SIZE * 5L, CacheAPI.getUsedBytes());
+
+        // OVER THE BUDGET, EVICTS DOWN TO 90% OF IT: 1500 -> 900
+        evict(SIZE * 4L, 100);
+        assertNull(CacheAPI.getEntry(A));
+        assertNull(CacheAPI.getEntry(B));
+        assertFalse(new CacheAPI.Entry(A, null, 0, 0).getFile().exists());
+        for (URI uri: new URI[] { C, D, E }) assertNotNull(CacheAPI.getEntry(uri), uri.toString());
+        assertEquals(SIZE * 3L, CacheAPI.getUsedBytes());
+    }
+
+    @Test
+    public void testEntriesBudgetEvictsLowestRankFirst() throws Exception {
+        start();
+        save(ALL);
+
+        // 5 ENTRIES OVER A BUDGET OF 4, EVICTS DOWN TO 3.6
+        evict(Long.MAX_VALUE, 4);
+        assertEquals(3, CacheAPI.getEntryCount());
+        assertNull(CacheAPI.getEntry(A));
+        assertNull(CacheAPI.getEntry(B));
+        assertNotNull(CacheAPI.getEntry(C));
+    }
+
+    @Test
+    public void testHitsProtectHotEntries() throws Exception {
+        start();
+        save(A);
+        CacheAPI.getEntry(A); // EACH HIT IS WORTH 10 MINUTES
+        CacheAPI.getEntry(A);
+        save(B, C, D, E); // ACCESSED LATER THAN A
+
+        evict(SIZE * 4L, 100);
+        assertNotNull(CacheAPI.getEntry(A));
+        assertNull(CacheAPI.getEntry(B));
+        assertNull(CacheAPI.getEntry(C));
+        assertNotNull(CacheAPI.getEntry(D));
+        assertNotNull(CacheAPI.getEntry(E));
+    }
+
+    @Test
+    public void testEvictionsAreJournaled() throws Exception {
+        start();
+        save(ALL);
+        evict(SIZE * 4L, 100);
+
+        // CRASH: ONLY THE JOURNAL SURVIVES, DELETES ARE REPLAYED
+        byte[] journal = read("index.log");
+        restart();
+        byte[] snapshot = read("index.dat");
+        Files.delete(file("index.dat").toPath());
+        write("index.log", journal);
+        start();
+        assertEquals(3, CacheAPI.getEntryCount());
+        assertNull(CacheAPI.getEntry(A));
+        assertNull(CacheAPI.getEntry(B));
+        assertEquals(SIZE * 3L, CacheAPI.getUsedBytes());
+
+        // CLEAN SHUTDOWN: THE SNAPSHOT HAS THEM GONE TOO
+        restart();
+        Files.deleteIfExists(file("index.log").toPath());
+        write("index.dat", snapshot);
+        start();
+        assertEquals(3, CacheAPI.getEntryCount());
+        assertNull(CacheAPI.getEntry(A));
+    }
+
+    /**
+     * Saves the entries in order, each one accessed later than the previous one
+     */
+    private static void save(URI... uris) throws InterruptedException {
+        for (URI uri: uris) {
+            CacheAPI.saveFile(uri, "t", 1, 0, new byte[SIZE]);
+            Thread.sleep(5); // RANKS ARE IN MILLISECONDS
+        }
+    }
+
+    /**
+     * Changes the budget and waits until the eviction ends, the cache worker runs one task at a time
+     */
+    private static void evict(long bytes, long entries) throws InterruptedException {
+        CacheAPI.setDiskBudget(bytes, entries);
+        CountDownLatch done = new CountDownLatch(1);
+        CacheAPI.loadPixels(A, pixels -> done.countDown());
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private void start() throws Exception {
+        api = new CacheAPI();
+        assertTrue(api.prepare(loader));
+        api.start(loader);
+    }
+
+    private void restart() {
+        api.release();
+        api = null;
+    }
+
+    private File file(String name) {
+        return new File(dir, name);
+    }
+
+    private byte[] read(String name) throws Exception {
+        return Files.readAllBytes(file(name).toPath());
+    }
+
+    private void write(String name, byte[] data) throws Exception {
+        Files.write(file(name).toPath(), data);
+    }
+
+    private static final class TestLoader implements ILoader {
+        private final Path temp;
+
+        private TestLoader(Path temp) {
+            this.temp = temp;
+        }
+
+        @Override public String name() { return "Test"; }
+        @Override public Path tempDir() { return temp; }
+        @Override public Path processDir() { return temp; }
+        @Override public boolean tlcheck() { return false; }
+        @Override public boolean clientSide() { return false; }
+        @Override public boolean developerMode() { return true; }
+    }
+}
@@ -0,0 +1,69 @@
+package org.watermedia.api.image;
+
+import org.watermedia.api.image.decoders.GifDecoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Decode throughput of the {@link GifDecoder} read paths: input stream, buffer cursor and
+ * paletted frames (LZW decoded in parallel across frames). Put another build of the decoder
+ * first on the classpath to compare against it.
+ * Usage: GifDecoderBenchmark [gif file] [iterations], defaults to the bundled loading gif
+ */
+public class GifDecoderBenchmark {
+    private static final int WARMUP = 5;
+
+    public static void main(String... args) throws Exception {
+        byte[] data = args.length > 0 ? Files.readAllBytes(Paths.get(args[0])) : readResource("/pictures/loading.gif");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        System.out.printf("GIF of %d bytes, %d iterations%n", data.length, iterations);
+        run("stream", data, iterations, () -> new GifDecoder(), (gif, d) -> gif.read(new ByteArrayInputStream(d)));
+        run("buffer", data, iterations, () -> new GifDecoder(), GifDecoder::read);
+        run("buffer paletted", data, iterations, () -> new GifDecoder().setPaletted(true), GifDecoder::read);
+    }
+
+    private static void run(String name, byte[] data, int iterations, Factory factory, Reader reader) {
+        int frames = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            GifDecoder gif = factory.create();
+            reader.read(gif, data);
+            frames = gif.getFrameCount();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            GifDecoder gif = factory.create();
+            if (reader.read(gif, data) != GifDecoder.STATUS_OK) throw new IllegalStateException("Failed to decode gif");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-16s %10.1f frames/s %8.2f MB/s %8.2f ms/decode%n", name,
+                frames * iterations / seconds,
+                data.length * (double) iterations / seconds / (1024 * 1024),
+                seconds * 1000 / iterations);
+    }
+
+    private static byte[] readResource(String path) throws Exception {
+        try (InputStream in = GifDecoderBenchmark.class.getResourceAsStream(path)) {
+            if (in == null) throw new IllegalStateException("Missing resource " + path);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+            return out.toByteArray();
+        }
+    }
+
+    private interface Factory {
+        GifDecoder create();
+    }
+
+    private interface Reader {
+        int read(GifDecoder gif, byte[] data);
+    }
+}
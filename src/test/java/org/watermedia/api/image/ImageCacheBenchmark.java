@@ -0,0 +1,86 @@
+package org.watermedia.api.image;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lookup throughput of the {@link ImageCache} registry under concurrent load, how every lookup was done before
+ * (synchronized access-order map, get and put) against {@link ImageCache#lookup(URI, Executor, int)}.
+ * Pictures are never loaded, only the registry is measured.
+ * Usage: ImageCacheBenchmark [threads] [pictures] [seconds], defaults to all cores, 200 pictures and 3 seconds
+ */
+public class ImageCacheBenchmark {
+    private static final Executor DIRECT = Runnable::run;
+
+    public static void main(String... args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int pictures = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long millis = (args.length > 2 ? Long.parseLong(args[2]) : 3) * 1000;
+
+        URI[] uris = new URI[pictures];
+        for (int i = 0; i < pictures; i++) uris[i] = URI.create("https://example.com/pictures/" + i + ".png");
+
+        // SAME USAGE COUNTING THAN THE CACHE, use() AND deuse()
+        Map<URI, AtomicInteger> legacy = Collections.synchronizedMap(new LinkedHashMap<>(128, 0.75f, true));
+        Lookup synced = uri -> {
+            AtomicInteger uses = legacy.get(uri);
+            if (uses == null) uses = new AtomicInteger();
+            uses.incrementAndGet();
+            legacy.put(uri, uses);
+            uses.decrementAndGet();
+        };
+
+        // EACH PICTURE KEEPS ONE USAGE, SO DEUSE NEVER RELEASES IT
+        for (URI uri: uris) ImageCache.lookup(uri, DIRECT, ImageFetch.PRIORITY_NORMAL);
+        Lookup registry = uri -> ImageCache.lookup(uri, DIRECT, ImageFetch.PRIORITY_NORMAL).deuse();
+
+        System.out.printf("%d pictures, %d ms per run%n", pictures, millis);
+        for (int count = 1; count <= threads; count = count == threads ? threads + 1 : Math.min(count * 2, threads)) {
+            run("synchronized", count, uris, millis / 3, synced); // WARMUP
+            run("registry", count, uris, millis / 3, registry);
+            System.out.printf("%2d threads %-12s %14.0f lookups/s%n", count, "synchronized", run("synchronized", count, uris, millis, synced));
+            System.out.printf("%2d threads %-12s %14.0f lookups/s%n", count, "registry", run("registry", count, uris, millis, registry));
+        }
+    }
+
+    private static double run(String name, int threads, URI[] uris, long millis, Lookup lookup) throws InterruptedException {
+        LongAdder lookups = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long done = 0;
+                while (System.nanoTime() < deadline[0]) {
+                    for (int i = 0; i < 256; i++) lookup.run(uris[random.nextInt(uris.length)]);
+                    done += 256;
+                }
+                lookups.add(done);
+            }, name + "-" + t);
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000;
+        start.countDown();
+        for (Thread worker: workers) worker.join();
+        return lookups.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    private interface Lookup {
+        void run(URI uri);
+    }
+}
@@ -0,0 +1,317 @@
+package org.watermedia.api.image.decoders;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to verify the compositing of {@link PalettedGif}: frames updated in place by the delta expand
+ * must be pixel-identical to the full expand of each frame, for every disposal mode with and without transparency,
+ * and keyframe seeks of lazy animations must match the frames composited from the first one
+ */
+public class PalettedGifTest {
+    private static final int DISPOSALS = 4; // UNSPECIFIED, KEEP, BACKGROUND, PREVIOUS
+    private static final int BACKGROUND = 5; // COLOR INDEX OF THE LOGICAL SCREEN
+    private static final long EAGER_LIMIT = 8 * 1024 * 1024; // SAME AS PalettedGif
+
+    @Test
+    public void testFullExpandMatchesDecoder() {
+        byte[] gif = encode(64, 48, frames(new Random(1), 64, 48, 120, 0));
+        GifDecoder reference = new GifDecoder();
+        assertEquals(GifDecoder.STATUS_OK, reference.read(gif));
+        PalettedGif paletted = paletted(gif, false, 0);
+
+        ByteBuffer dest = ByteBuffer.allocate(64 * 48 * 4);
+        for (int i = 0; i < paletted.getFrameCount(); i++) {
+            BufferedImage frame = reference.getFrame(i);
+            paletted.expand(i, dest);
+            assertArrayEquals(frame.getRGB(0, 0, 64, 48, null, 0, 64), pixels(dest), "Frame " + i);
+        }
+    }
+
+    @Test
+    public void testDeltaMatchesFullExpand() {
+        for (boolean transparency: new boolean[] { false, true }) {
+            for (int disposal = 0; disposal < DISPOSALS; disposal++) {
+                List<Frame> frames = frames(new Random(disposal), 40, 30, 60, transparency ? 1 : 0);
+                for (Frame frame: frames) frame.disposal = disposal; // ONE MODE ALONE
+                byte[] gif = encode(40, 30, frames);
+                String mode = "disposal " + disposal + (transparency ? " with" : " without") + " transparency";
+                assertDelta(paletted(gif, false, 0), 1, mode);
+                assertDelta(paletted(gif, false, 0), 3, mode + ", skipping frames");
+            }
+        }
+
+        // ALL MODES MIXED, DISPOSE TO PREVIOUS AFTER DISPOSE TO BACKGROUND AND ALIKE
+        byte[] gif = encode(40, 30, frames(new Random(7), 40, 30, 200, 2));
+        assertDelta(paletted(gif, false, 0), 1, "mixed modes");
+        assertDelta(paletted(gif, false, 0), 4, "mixed modes, skipping frames");
+    }
+
+    @Test
+    public void testDownscaledDelta() {
+        byte[] gif = encode(61, 45, frames(new Random(3), 61, 45, 150, 2));
+        PalettedGif paletted = paletted(gif, false, 20);
+        assertTrue(paletted.scale > 1);
+        assertDelta(paletted, 1, "downscaled");
+        assertDelta(paletted(gif, false, 20), 3, "downscaled, skipping frames");
+    }
+
+    @Test
+    public void testRandomAccess() {
+        byte[] gif = encode(40, 30, frames(new Random(11), 40, 30, 80, 2));
+        PalettedGif paletted = paletted(gif, false, 0);
+        ByteBuffer full = ByteBuffer.allocate(40 * 30 * 4);
+        ByteBuffer delta = ByteBuffer.allocate(40 * 30 * 4);
+        Random random = new Random(12);
+
+        int shown = -1;
+        for (int i = 0; i < 200; i++) {
+            int index = random.nextInt(4) == 0 ? shown : random.nextInt(paletted.getFrameCount());
+            boolean moved = random.nextInt(4) == 0;
+            if (moved) paletted.expand(random.nextInt(paletted.getFrameCount()), full); // CANVAS IS NOT WHAT THE BUFFER HAS
+            int[] region = paletted.expand(Math.max(0, index), shown, delta);
+            if (index == shown && !moved) assertEquals(0, region[2] * region[3], "Same frame has nothing to write");
+
+            index = Math.max(0, index);
+            paletted.expand(index, full);
+            assertArrayEquals(pixels(full), pixels(delta), "Frame " + index + " from " + shown);
+            shown = index;
+        }
+    }
+
+    @Test
+    public void testKeyframeSeeks() {
+        // LONG ENOUGH TO BE DECODED LAZILY, EACH FOURTH FRAME COVERS THE WHOLE CANVAS
+        List<Frame> frames = new ArrayList<>();
+        Random random = new Random(5);
+        long pixels = 0;
+        while (pixels <= EAGER_LIMIT) {
+            Frame frame = frames.size() % 4 == 0 ? frame(random, 64, 64, 0, 0, 64, 64, 2) : frames(random, 64, 64, 1, 2).get(0);
+            frame.interlace = frames.size() % 7 == 0;
+            frames.add(frame);
+            pixels += (long) frame.w * frame.h;
+        }
+        byte[] gif = encode(64, 64, frames);
+
+        PalettedGif eager = paletted(gif, false, 0);
+        assertFalse(eager.isLazy());
+        int count = eager.getFrameCount();
+        int[] hashes = new int[count];
+        ByteBuffer dest = ByteBuffer.allocate(64 * 64 * 4);
+        for (int i = 0; i < count; i++) {
+            eager.expand(i, dest);
+            hashes[i] = Arrays.hashCode(pixels(dest));
+        }
+
+        // FIRST PASS CREATES THE KEYFRAMES, BOTH WAYS OF EXPANDING
+        PalettedGif lazy = paletted(gif, true, 0);
+        assertTrue(lazy.isLazy());
+        assertDelta(lazy, 1, "lazy");
+        for (int i = 0; i < count; i++) {
+            lazy.expand(i, dest);
+            assertEquals(hashes[i], Arrays.hashCode(pixels(dest)), "Frame " + i);
+        }
+
+        // SEEKS RESTORES THE CLOSEST KEYFRAME, THEN DELTAS GOES ON FROM IT
+        Random seeks = new Random(6);
+        ByteBuffer delta = ByteBuffer.allocate(64 * 64 * 4);
+        for (int i = 0; i < 40; i++) {
+            int index = seeks.nextInt(count);
+            lazy.expand(index, dest);
+            assertEquals(hashes[index], Arrays.hashCode(pixels(dest)), "Seek to frame " + index);
+
+            delta.clear();
+            delta.put(dest.duplicate()).clear();
+            for (int next = index + 1; next < Math.min(count, index + 20); next++) {
+                lazy.expand(next, next - 1, delta);
+                assertEquals(hashes[next], Arrays.hashCode(pixels(delta)), "Delta to frame " + next + " after seeking to " + index);
+            }
+        }
+
+        // TRIMMED, STARTS AGAIN FROM THE FIRST FRAME
+        lazy.trim();
+        lazy.expand(count - 1, dest);
+        assertEquals(hashes[count - 1], Arrays.hashCode(pixels(dest)));
+    }
+
+    /**
+     * Updates a buffer with the delta expand, moving {@code step} frames at once and looping back to the first frame,
+     * and checks it against the full expand after each move
+     */
+    private static void assertDelta(PalettedGif paletted, int step, String mode) {
+        int size = paletted.width * paletted.height * 4;
+        ByteBuffer delta = ByteBuffer.allocate(size);
+        ByteBuffer full = ByteBuffer.allocate(size);
+        int count = paletted.getFrameCount();
+
+        int shown = -1;
+        for (int i = 0; i < count * 2; i += step) {
+            int index = i % count;
+            int[] region = paletted.expand(index, shown, delta);
+            assertTrue(region[0] >= 0 && region[1] >= 0 && region[0] + region[2] <= paletted.width && region[1] + region[3] <= paletted.height,
+                    "Region " + Arrays.toString(region) + " out of the frame, " + mode);
+            shown = index;
+
+            paletted.expand(index, full);
+            assertArrayEquals(pixels(full), pixels(delta), "Frame " + index + ", " + mode);
+        }
+    }
+
+    private static PalettedGif paletted(byte[] gif, boolean lazy, int maxDimension) {
+        GifDecoder decoder = new GifDecoder().setPaletted(true).setLazy(lazy).setMaxDimension(maxDimension);
+        assertEquals(GifDecoder.STATUS_OK, decoder.read(ByteBuffer.wrap(gif)));
+        return decoder.getPalettedGif();
+    }
+
+    private static int[] pixels(ByteBuffer buffer) {
+        int[] pixels = new int[buffer.capacity() / 4];
+        buffer.asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    /**
+     * @param transparency 0 for opaque frames, 1 for transparent frames, 2 to mix both
+     */
+    private static List<Frame> frames(Random random, int width, int height, int count, int transparency) {
+        List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int w = 1 + random.nextInt(width), h = 1 + random.nextInt(height);
+            int x = random.nextInt(width - w + 1), y = random.nextInt(height - h + 1);
+            if (random.nextInt(8) == 0) { // SOME FRAMES GOES PAST THE CANVAS
+                w = Math.min(w + 8, 0xFFFF - x);
+                h = Math.min(h + 8, 0xFFFF - y);
+            }
+            Frame frame = frame(random, width, height, x, y, w, h, transparency);
+            frame.interlace = random.nextInt(6) == 0;
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static Frame frame(Random random, int width, int height, int x, int y, int w, int h, int transparency) {
+        Frame frame = new Frame(x, y, w, h);
+        frame.disposal = random.nextInt(DISPOSALS);
+        frame.transparent = transparency == 2 ? random.nextBoolean() : transparency == 1;
+        frame.transIndex = random.nextBoolean() ? BACKGROUND : random.nextInt(256); // BACKGROUND ONE CLEARS TO TRANSPARENT
+        int colors = 1 + random.nextInt(16);
+        int base = random.nextInt(256 - colors);
+        for (int i = 0; i < frame.indices.length; i++) {
+            frame.indices[i] = (byte) (random.nextInt(4) == 0 ? frame.transIndex : base + random.nextInt(colors));
+        }
+        return frame;
+    }
+
+    /**
+     * Writes a GIF89a with a global color table, a graphic control extension on each frame
+     * and LZW data without compression: a clear code before the table grows past 9 bits
+     */
+    private static byte[] encode(int width, int height, List<Frame> frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('G'); out.write('I'); out.write('F'); out.write('8'); out.write('9'); out.write('a');
+        short$write(out, width);
+        short$write(out, height);
+        out.write(0xF7); // GLOBAL TABLE OF 256 COLORS
+        out.write(BACKGROUND);
+        out.write(0);
+        for (int i = 0; i < 256; i++) {
+            out.write(i * 7);
+            out.write(255 - i);
+            out.write(i * 3 + 11);
+        }
+
+        for (Frame frame: frames) {
+            out.write(0x21);
+            out.write(0xF9);
+            out.write(4);
+            out.write((frame.disposal << 2) | (frame.transparent ? 1 : 0));
+            short$write(out, 2);
+            out.write(frame.transIndex);
+            out.write(0);
+
+            out.write(0x2C);
+            short$write(out, frame.x);
+            short$write(out, frame.y);
+            short$write(out, frame.w);
+            short$write(out, frame.h);
+            out.write(frame.interlace ? 0x40 : 0);
+            lzw$write(out, frame.interlace ? interlace(frame) : frame.indices);
+        }
+        out.write(0x3B);
+        return out.toByteArray();
+    }
+
+    // ROWS IN THE ORDER OF THE FOUR PASSES
+    private static byte[] interlace(Frame frame) {
+        byte[] rows = new byte[frame.indices.length];
+        int row = 0;
+        int[][] passes = { { 0, 8 }, { 4, 8 }, { 2, 4 }, { 1, 2 } };
+        for (int[] pass: passes) {
+            for (int y = pass[0]; y < frame.h; y += pass[1]) {
+                System.arraycopy(frame.indices, y * frame.w, rows, row++ * frame.w, frame.w);
+            }
+        }
+        return rows;
+    }
+
+    private static void lzw$write(ByteArrayOutputStream out, byte[] indices) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] bits = new int[2]; // ACCUMULATOR, COUNT
+        out.write(8);
+        code$write(data, bits, 256);
+        for (int i = 0; i < indices.length; i++) {
+            if (i > 0 && i % 254 == 0) code$write(data, bits, 256); // DECODER TABLE REACHES 512 ENTRIES AFTER 255 CODES
+            code$write(data, bits, indices[i] & 0xFF);
+        }
+        code$write(data, bits, 257);
+        if (bits[1] > 0) data.write(bits[0]);
+
+        byte[] bytes = data.toByteArray();
+        for (int i = 0; i < bytes.length; i += 255) {
+            int length = Math.min(255, bytes.length - i);
+            out.write(length);
+            out.write(bytes, i, length);
+        }
+        out.write(0);
+    }
+
+    private static void code$write(ByteArrayOutputStream data, int[] bits, int code) {
+        bits[0] |= code << bits[1];
+        bits[1] += 9;
+        while (bits[1] >= 8) {
+            data.write(bits[0] & 0xFF);
+            bits[0] >>>= 8;
+            bits[1] -= 8;
+        }
+    }
+
+    private static void short$write(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+
+    private static final class Frame {
+        final int x, y, w, h;
+        final byte[] indices;
+        int disposal;
+        boolean transparent;
+        boolean interlace;
+        int transIndex;
+
+        Frame(int x, int y, int w, int h) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.indices = new byte[w * h];
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.watermedia.api.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to verify the frame hand-off of {@link PixelBufferRing} using a GL stub,
+ * uploads reads the mapped memory of the buffer like the driver does after the unmap
+ */
+public class PixelBufferRingTest {
+    private static final int SIZE = 16;
+
+    @Test
+    public void testUploadsNewestFrame() {
+        FakeGL gl = new FakeGL();
+        PixelBufferRing ring = new PixelBufferRing(gl, 3, SIZE);
+
+        assertFalse(ring.upload(1, 0, 2, 2, true), "Nothing was written yet");
+        assertTrue(ring.write(frame(1)));
+        assertTrue(ring.write(frame(2)));
+        assertTrue(ring.upload(1, 0, 2, 2, true));
+        assertEquals(1, gl.uploads.size());
+        assertEquals(2, gl.uploads.get(0)[0]);
+
+        // THE DROPPED FRAME IS NOT UPLOADED LATER
+        assertFalse(ring.upload(1, 0, 2, 2, false));
+    }
+
+    @Test
+    public void testLateRenderThreadDropsOldestFrame() {
+        FakeGL gl = new FakeGL();
+        PixelBufferRing ring = new PixelBufferRing(gl, 2, SIZE);
+
+        for (int i = 1; i <= 5; i++) assertTrue(ring.write(frame(i)));
+        assertTrue(ring.upload(1, 0, 2, 2, true));
+        assertEquals(5, gl.uploads.get(0)[0]);
+    }
+
+    @Test
+    public void testBuffersAreRemappedAfterUpload() {
+        FakeGL gl = new FakeGL();
+        PixelBufferRing ring = new PixelBufferRing(gl, 2, SIZE);
+
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(ring.write(frame(i)));
+            assertTrue(ring.upload(1, 0, 2, 2, i == 1));
+            assertEquals(i, gl.uploads.get(i - 1)[0]);
+        }
+        assertEquals(0, gl.mappedWhileUploading, "Uploads must read unmapped buffers");
+    }
+
+    @Test
+    public void testOversizedFrameAndRelease() {
+        FakeGL gl = new FakeGL();
+        PixelBufferRing ring = new PixelBufferRing(gl, 3, SIZE);
+
+        assertFalse(ring.write(ByteBuffer.allocate(SIZE + 1)));
+        assertTrue(ring.write(frame(1)));
+        ring.release();
+        assertFalse(ring.write(frame(2)));
+        assertTrue(gl.storage.isEmpty(), "All buffers must be deleted");
+        assertTrue(gl.mapped.isEmpty(), "All buffers must be unmapped");
+    }
+
+    private static ByteBuffer frame(int value) {
+        ByteBuffer frame = ByteBuffer.allocate(SIZE);
+        while (frame.hasRemaining()) frame.put((byte) value);
+        frame.flip();
+        return frame;
+    }
+
+    private static class FakeGL implements PixelBufferRing.Backend {
+        private final Map<Integer, ByteBuffer> storage = new HashMap<>();
+        private final Map<Integer, Boolean> mapped = new HashMap<>();
+        private final List<byte[]> uploads = new ArrayList<>();
+        private int mappedWhileUploading;
+        private int ids;
+
+        @Override
+        public int create(int size) {
+            storage.put(++ids, ByteBuffer.allocate(size));
+            return ids;
+        }
+
+        @Override
+        public ByteBuffer map(int buffer, int size) {
+            ByteBuffer orphan = ByteBuffer.allocate(size);
+            storage.put(buffer, orphan);
+            mapped.put(buffer, true);
+            return orphan;
+        }
+
+        @Override
+        public void unmap(int buffer) {
+            mapped.remove(buffer);
+        }
+
+        @Override
+        public void upload(int buffer, int texture, int format, int width, int height, boolean first) {
+            if (mapped.containsKey(buffer)) mappedWhileUploading++;
+            ByteBuffer data = storage.get(buffer);
+            byte[] copy = new byte[data.capacity()];
+            data.duplicate().get(copy);
+            uploads.add(copy);
+        }
+
+        @Override
+        public void delete(int buffer) {
+            storage.remove(buffer);
+        }
+    }
+}
@@ -166,10 +166,10 @@ public class TestOpenGLApp implements Executor {
             if (cache.isVideo()) {
                 player.preRender();
                 glBindTexture(GL_TEXTURE_2D, player.texture());
-            } else if (renderer.duration == 0) {
+            } else if (renderer.getDuration() == 0) {
                 glBindTexture(GL_TEXTURE_2D, renderer.texture(0));
             } else {
-                glBindTexture(GL_TEXTURE_2D, renderer.texture(System.currentTimeMillis() % renderer.duration));
+                glBindTexture(GL_TEXTURE_2D, renderer.texture(System.currentTimeMillis() % renderer.getDuration()));
             }
 
 
@@ -184,7 +184,7 @@ public class TestOpenGLApp implements Executor {
             glEnd();
 
             if (player != null && (!player.isSafeUse() || player.isBuffering() || player.isLoading() || player.isPaused())) {
-                glBindTexture(GL_TEXTURE_2D, ImageAPI.loadingGif().texture(System.currentTimeMillis() % renderer.duration));
+                glBindTexture(GL_TEXTURE_2D, ImageAPI.loadingGif().texture(System.currentTimeMillis() % renderer.getDuration()));
                 glBegin(GL_QUADS); {
                     glTexCoord2f(0, 1); glVertex2f(-1, -1);
                     glTexCoord2f(0, 0); glVertex2f(-1, 1);
@@ -0,0 +1,124 @@
+package org.watermedia.core.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.watermedia.core.tools.FormatTool.Format;
+
+/**
+ * Test class to verify signature, MIME type and extension detection of {@link FormatTool}
+ */
+public class FormatToolTest {
+
+    @Test
+    public void testImageSignatures() throws Exception {
+        assertEquals(Format.GIF, sniffResource("/pictures/loading.gif"));
+        assertEquals(Format.PNG, sniffResource("/icon.png"));
+        assertEquals(Format.JPEG, sniff(0xFF, 0xD8, 0xFF, 0xE0, 0, 0x10, 'J', 'F', 'I', 'F'));
+        assertEquals(Format.WEBP, sniff("RIFF\0\0\0\0WEBPVP8 "));
+        assertEquals(Format.APNG, sniff(0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n',
+                0, 0, 0, 13, 'I', 'H', 'D', 'R', 0, 0, 0, 1, 0, 0, 0, 1, 8, 6, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0, 8, 'a', 'c', 'T', 'L', 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void testMediaSignatures() {
+        assertEquals(Format.MP4, sniff("\0\0\0 ftypisom\0\0\0\0"));
+        assertEquals(Format.M4A, sniff("\0\0\0 ftypM4A \0\0\0\0"));
+
+        // HEIF PICTURES ARE ISO BOXES TOO
+        assertEquals(Format.AVIF, sniff("\0\0\0\u0018ftypavif\0\0\0\0mif1"));
+        assertEquals(Format.HEIF, sniff("\0\0\0\u0018ftypheic\0\0\0\0mif1"));
+        assertEquals(Format.AVIF, sniff("\0\0\0\u001Cftypmif1\0\0\0\0mif1avif"));
+        assertEquals(Format.HEIF, sniff("\0\0\0\u0018ftypmif1\0\0\0\0heic\0\0\0\0avif")); // OUT OF THE BOX
+        assertTrue(sniff("\0\0\0\u0018ftypmsf1\0\0\0\0").isImage());
+        assertEquals(Format.MKV, sniff(0x1A, 0x45, 0xDF, 0xA3, 0x9F, 0x42, 0x82, 0x88, 'm', 'a', 't', 'r', 'o', 's', 'k', 'a'));
+        assertEquals(Format.WEBM, sniff(0x1A, 0x45, 0xDF, 0xA3, 0x9F, 0x42, 0x82, 0x84, 'w', 'e', 'b', 'm'));
+        assertEquals(Format.OGG, sniff("OggS\0\u0002\0\0\0\0\0\0\0\0"));
+        assertEquals(Format.FLAC, sniff("fLaC\0\0\0\u0010"));
+        assertEquals(Format.MP3, sniff("ID3\u0004\0\0\0\0\0\0"));
+        assertEquals(Format.MP3, sniff(0xFF, 0xFB, 0x90, 0x64));
+        assertEquals(Format.M3U8, sniff("\uFEFF\n#EXTM3U\n#EXT-X-VERSION:3\n"));
+
+        byte[] ts = new byte[FormatTool.SNIFF_SIZE];
+        ts[0] = ts[188] = ts[376] = 0x47;
+        assertEquals(Format.TS, FormatTool.sniff(ts, 0, ts.length));
+
+        // A SINGLE 'G' IS NOT A TRANSPORT STREAM
+        assertEquals(Format.UNKNOWN, sniff("G hello world"));
+    }
+
+    @Test
+    public void testStreamIsReset() throws Exception {
+        byte[] data = "GIF89a and the rest of the file".getBytes(StandardCharsets.US_ASCII);
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(data));
+        assertEquals(Format.GIF, FormatTool.sniff(in));
+        assertEquals('G', in.read());
+    }
+
+    @Test
+    public void testSignatureOverridesMimeType() throws Exception {
+        InputStream png = new BufferedInputStream(FormatToolTest.class.getResourceAsStream("/icon.png"));
+        assertEquals(Format.PNG, FormatTool.detect(png, "application/octet-stream", new URI("https://example.com/video.mp4")));
+
+        InputStream text = new BufferedInputStream(new ByteArrayInputStream("plain text".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(Format.ANY_IMAGE, FormatTool.detect(text, "image/tiff; charset=binary", null));
+    }
+
+    @Test
+    public void testDeclaredMimeTypeOverridesExtension() throws Exception {
+        URI uri = new URI("https://example.com/picture.png");
+        assertEquals(Format.ANY_OTHER, FormatTool.detect(text("<!DOCTYPE html>"), "text/html; charset=UTF-8", uri));
+        assertEquals(Format.ANY_OTHER, FormatTool.detect(text("{\"error\":404}"), "application/json", uri));
+        assertFalse(FormatTool.detect(text("<html>"), "text/html", uri).isImage());
+
+        // GENERIC TYPES LETS THE EXTENSION DECIDE
+        assertEquals(Format.PNG, FormatTool.detect(text("????"), "application/octet-stream", uri));
+        assertEquals(Format.PNG, FormatTool.detect(text("????"), "text/plain", uri));
+        assertEquals(Format.PNG, FormatTool.detect(text("????"), null, uri));
+    }
+
+    @Test
+    public void testExtensionsAndMimeTypes() throws Exception {
+        assertEquals(Format.MKV, FormatTool.byExtension(new URI("https://example.com/movie.MKV")));
+        assertEquals(Format.M3U8, FormatTool.byExtension(new URI("https://example.com/live/index.m3u8")));
+        assertEquals(Format.UNKNOWN, FormatTool.byExtension(new URI("https://example.com/v1.2/picture")));
+        assertEquals(Format.UNKNOWN, FormatTool.byExtension((String) null));
+        assertTrue(FormatTool.byExtension("C:\\Users\\Videos\\movie.opus").isMedia());
+
+        assertEquals(Format.MKV, FormatTool.byMimeType("video/x-matroska; charset=binary"));
+        assertEquals(Format.M3U8, FormatTool.byMimeType("application/vnd.apple.mpegurl"));
+        assertEquals(Format.ANY_VIDEO, FormatTool.byMimeType("video/x-unknown"));
+        assertEquals(Format.ANY_OTHER, FormatTool.byMimeType("text/html"));
+        assertEquals(Format.UNKNOWN, FormatTool.byMimeType("binary/octet-stream"));
+        assertEquals(Format.UNKNOWN, FormatTool.byMimeType(""));
+        assertEquals(Format.AVIF, FormatTool.byMimeType("image/avif"));
+    }
+
+    private static Format sniffResource(String path) throws Exception {
+        try (InputStream in = new BufferedInputStream(FormatToolTest.class.getResourceAsStream(path))) {
+            return FormatTool.sniff(in);
+        }
+    }
+
+    private static InputStream text(String text) {
+        return new BufferedInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Format sniff(String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        return FormatTool.sniff(data, 0, data.length);
+    }
+
+    private static Format sniff(int... bytes) {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) data[i] = (byte) bytes[i];
+        return FormatTool.sniff(data, 0, data.length);
+    }
+}